@@ -0,0 +1,40 @@
+package benchmarks;
+
+import srnp.PeisJavaMT;
+
+/**
+ * Starts the in-process stand-in kernel the benchmarks run against, so that
+ * measurements need neither the native library nor a master node.
+ */
+final class BenchmarkKernel {
+
+	static final int OWNER = 12;
+
+	private static boolean started = false;
+
+	private BenchmarkKernel() {
+	}
+
+	static synchronized void start() {
+		if(!started) {
+			PeisJavaMT.peisjava_initialize(new String[] {"Benchmark", "--owner-id", "" + OWNER}, null, PeisJavaMT.BACKEND_LOCAL);
+			started = true;
+		}
+	}
+
+	static byte[] payload(int size) {
+		final byte[] b = new byte[size];
+		for(int i = 0; i < size; i++) {
+			b[i] = (byte) i;
+		}
+		return b;
+	}
+
+	static String text(int size) {
+		final StringBuilder sb = new StringBuilder(size);
+		for(int i = 0; i < size; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+}
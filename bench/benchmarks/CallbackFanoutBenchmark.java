@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import srnp.CallbackObject;
+import srnp.PeisJavaMT;
+import srnp.PeisTuple;
+
+/**
+ * Delivery of one tuple update to a number of {@link CallbackObject}s registered on the same key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackFanoutBenchmark {
+
+	@Param({"1", "4", "16", "64"})
+	public int listeners;
+
+	private final byte[] payload = BenchmarkKernel.payload(64);
+
+	private double[] handles;
+
+	private static final class Consumer extends CallbackObject {
+		private final Blackhole bh;
+
+		Consumer(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		@Override
+		public void callback(PeisTuple tuple) {
+			bh.consume(tuple.datalen);
+		}
+	}
+
+	@Setup
+	public void setup(Blackhole bh) {
+		BenchmarkKernel.start();
+		handles = new double[listeners];
+		for(int i = 0; i < listeners; i++) {
+			handles[i] = PeisJavaMT.peisjava_registerTupleCallback(BenchmarkKernel.OWNER, "bench.fanout", new Consumer(bh));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for(double h : handles) {
+			PeisJavaMT.peisjava_unregisterTupleCallback(h);
+		}
+	}
+
+	@Benchmark
+	public void publish() {
+		PeisJavaMT.peisjava_setTuple("bench.fanout", payload, "application/octet-stream");
+	}
+}
@@ -0,0 +1,72 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.DeltaPublisher;
+import srnp.PeisJavaMT;
+
+/**
+ * Updating a large map of which a few hundred bytes change per update, republished in
+ * full with {@code peisjava_setTuple} against a {@link DeltaPublisher}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaPublishBenchmark {
+
+	@Param({"262144"})
+	public int size;
+
+	@Param({"300"})
+	public int changed;
+
+	private byte[] map;
+
+	private DeltaPublisher publisher;
+
+	private final Random random = new Random(7);
+
+	@Setup
+	public void setup() {
+		BenchmarkKernel.start();
+		map = BenchmarkKernel.payload(size);
+		publisher = new DeltaPublisher("bench.delta");
+	}
+
+	private void update() {
+		//A few scattered cells around one spot
+		final int at = random.nextInt(size - 4 * changed);
+		for (int i = 0; i < changed; i++) {
+			map[at + 4 * i]++;
+		}
+	}
+
+	@Benchmark
+	public int fullSet() {
+		update();
+		PeisJavaMT.peisjava_setTuple("bench.full", map, "application/octet-stream");
+		return map.length;
+	}
+
+	@Benchmark
+	public int deltaPublish() {
+		update();
+		return publisher.publish(map);
+	}
+}
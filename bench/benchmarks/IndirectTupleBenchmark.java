@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.PeisJavaMT;
+import srnp.PeisTuple;
+
+/**
+ * Cost of the meta-tuple indirection of {@link PeisJavaMT#peisjava_getTupleIndirectly(int, String)}
+ * compared to reading the referenced tuple directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndirectTupleBenchmark {
+
+	@Setup
+	public void setup() {
+		BenchmarkKernel.start();
+		PeisJavaMT.peisjava_setTuple("bench.real", BenchmarkKernel.payload(256), "application/octet-stream");
+		PeisJavaMT.peisjava_declareMetaTuple("bench.meta");
+		PeisJavaMT.peisjava_setMetaTuple(BenchmarkKernel.OWNER, "bench.meta", BenchmarkKernel.OWNER, "bench.real");
+		PeisJavaMT.peisjava_subscribeIndirectly("bench.meta");
+	}
+
+	@Benchmark
+	public PeisTuple getTupleDirectly() {
+		return PeisJavaMT.peisjava_getTuple(BenchmarkKernel.OWNER, "bench.real");
+	}
+
+	@Benchmark
+	public PeisTuple getTupleIndirectly() {
+		return PeisJavaMT.peisjava_getTupleIndirectly(BenchmarkKernel.OWNER, "bench.meta");
+	}
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import srnp.CallbackObject;
+import srnp.PeisJavaMT;
+import srnp.PeisTuple;
+
+/**
+ * Publishing a tuple while a growing number of key patterns is registered, of which
+ * two match the key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternDispatchBenchmark {
+
+	@Param({"1", "64", "1024"})
+	public int patterns;
+
+	private final byte[] payload = BenchmarkKernel.payload(64);
+
+	private double[] handles;
+
+	private static final class Consumer extends CallbackObject {
+		private final Blackhole bh;
+
+		Consumer(Blackhole bh) {
+			this.bh = bh;
+		}
+
+		@Override
+		public void callback(PeisTuple tuple) {
+			bh.consume(tuple.datalen);
+		}
+	}
+
+	@Setup
+	public void setup(Blackhole bh) {
+		BenchmarkKernel.start();
+		handles = new double[patterns + 1];
+		for(int i = 0; i < patterns; i++) {
+			handles[i] = PeisJavaMT.peisjava_registerPatternCallback(BenchmarkKernel.OWNER, "bench.sensor" + i + ".*", new Consumer(bh));
+		}
+		handles[patterns] = PeisJavaMT.peisjava_registerPatternCallback(BenchmarkKernel.OWNER, "bench.**", new Consumer(bh));
+	}
+
+	@TearDown
+	public void tearDown() {
+		for(double h : handles) {
+			PeisJavaMT.peisjava_unregisterPatternCallback(h);
+		}
+	}
+
+	@Benchmark
+	public void publish() {
+		PeisJavaMT.peisjava_setTuple("bench.sensor0.value", payload, "application/octet-stream");
+	}
+}
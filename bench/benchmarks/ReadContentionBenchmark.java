@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.PeisJavaMT;
+
+/**
+ * Scaling of {@link PeisJavaMT#peisjava_getByteTuple(int, String)} with the number of reader
+ * threads, each reading its own key.  The {@code lockFree} variants read as the library now
+ * does, without any lock (only subscription and meta tuple changes are striped); the
+ * {@code monitor} variants serialize the reads on one class-level monitor, as all byte reads
+ * did before, for comparison.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadContentionBenchmark {
+
+	private static final int KEYS = 64;
+
+	private static final Object MONITOR = new Object();
+
+	@State(Scope.Benchmark)
+	public static class Tuples {
+		private final AtomicInteger next = new AtomicInteger();
+
+		@Setup
+		public void setup() {
+			BenchmarkKernel.start();
+			for(int i = 0; i < KEYS; i++) {
+				PeisJavaMT.peisjava_setTuple("bench.contention." + i, BenchmarkKernel.payload(64), "application/octet-stream");
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Reader {
+		String key;
+
+		@Setup
+		public void setup(Tuples tuples) {
+			key = "bench.contention." + (tuples.next.getAndIncrement() % KEYS);
+		}
+	}
+
+	private static byte[] read(Reader r) {
+		return PeisJavaMT.peisjava_getByteTuple(BenchmarkKernel.OWNER, r.key);
+	}
+
+	private static byte[] readMonitor(Reader r) {
+		synchronized (MONITOR) {
+			return read(r);
+		}
+	}
+
+	@Benchmark @Threads(1)
+	public byte[] lockFree01(Tuples t, Reader r) {
+		return read(r);
+	}
+
+	@Benchmark @Threads(2)
+	public byte[] lockFree02(Tuples t, Reader r) {
+		return read(r);
+	}
+
+	@Benchmark @Threads(4)
+	public byte[] lockFree04(Tuples t, Reader r) {
+		return read(r);
+	}
+
+	@Benchmark @Threads(8)
+	public byte[] lockFree08(Tuples t, Reader r) {
+		return read(r);
+	}
+
+	@Benchmark @Threads(1)
+	public byte[] monitor01(Tuples t, Reader r) {
+		return readMonitor(r);
+	}
+
+	@Benchmark @Threads(2)
+	public byte[] monitor02(Tuples t, Reader r) {
+		return readMonitor(r);
+	}
+
+	@Benchmark @Threads(4)
+	public byte[] monitor04(Tuples t, Reader r) {
+		return readMonitor(r);
+	}
+
+	@Benchmark @Threads(8)
+	public byte[] monitor08(Tuples t, Reader r) {
+		return readMonitor(r);
+	}
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import srnp.PeisTuple;
+
+/**
+ * UTF-8 string codec of {@link PeisTuple} against the previous implementation, which
+ * encoded with the platform charset into a fresh {@link Memory} and decoded by scanning
+ * for the terminator.  The legacy variants truncate non-ASCII values.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringCodecBenchmark {
+
+	@Param({"16", "256", "4096"})
+	public int size;
+
+	@Param({"true", "false"})
+	public boolean ascii;
+
+	private String text;
+
+	private PeisTuple tuple;
+
+	private PeisTuple encoded;
+
+	private PeisTuple other;
+
+	private PeisTuple reader;
+
+	private boolean flip;
+
+	@Setup
+	public void setup() {
+		final String base = BenchmarkKernel.text(size);
+		text = ascii ? base : base.replace('e', '\u00e9');
+		tuple = new PeisTuple();
+		encoded = new PeisTuple();
+		encoded.setStringData(text);
+		other = new PeisTuple();
+		other.setStringData(text);
+		reader = new PeisTuple();
+	}
+
+	@Benchmark
+	public int setStringData() {
+		tuple.setStringData(text);
+		return tuple.datalen;
+	}
+
+	@Benchmark
+	public int legacySetStringData() {
+		final Memory m = new Memory(text.length() + 1);
+		m.write(0, text.getBytes(), 0, text.length());
+		final byte[] terminator = {0x0};
+		m.write(text.length(), terminator, 0, 1);
+		tuple.data.setPointer(m);
+		tuple.datalen = text.length() + 1;
+		return tuple.datalen;
+	}
+
+	@Benchmark
+	public String getStringData() {
+		//Alternate between two buffers so that every read decodes
+		flip = !flip;
+		reader.data.setPointer((flip ? encoded : other).data.getPointer());
+		reader.datalen = encoded.datalen;
+		return reader.getStringData();
+	}
+
+	@Benchmark
+	public String getStringDataCached() {
+		return encoded.getStringData();
+	}
+
+	@Benchmark
+	public String legacyGetStringData() {
+		final Pointer p = encoded.data.getPointer();
+		return p.getString(0);
+	}
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.PeisJavaMT;
+
+/**
+ * String tuples versus byte tuples carrying the same number of bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringTupleBenchmark {
+
+	@Param({"16", "256", "4096"})
+	public int size;
+
+	private String text;
+
+	private byte[] bytes;
+
+	@Setup
+	public void setup() {
+		BenchmarkKernel.start();
+		text = BenchmarkKernel.text(size);
+		bytes = BenchmarkKernel.payload(size);
+		PeisJavaMT.peisjava_setStringTuple("bench.string", text);
+		PeisJavaMT.peisjava_setTuple("bench.bytes", bytes, "application/octet-stream");
+	}
+
+	@Benchmark
+	public void setStringTuple() {
+		PeisJavaMT.peisjava_setStringTuple("bench.string", text);
+	}
+
+	@Benchmark
+	public void setByteTuple() {
+		PeisJavaMT.peisjava_setTuple("bench.bytes", bytes, "application/octet-stream");
+	}
+
+	@Benchmark
+	public String getStringTuple() {
+		return PeisJavaMT.peisjava_getStringTuple(BenchmarkKernel.OWNER, "bench.string");
+	}
+
+	@Benchmark
+	public byte[] getByteTuple() {
+		return PeisJavaMT.peisjava_getByteTuple(BenchmarkKernel.OWNER, "bench.bytes");
+	}
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.PeisJavaMT;
+
+/**
+ * Round trip of a pose through a typed tuple ({@link srnp.TupleCodecs} record codec)
+ * against formatting it into a String tuple and parsing it back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleCodecBenchmark {
+
+	public record Pose(long time, double x, double y, double theta) {
+	}
+
+	private long time;
+
+	@Setup
+	public void setup() {
+		BenchmarkKernel.start();
+	}
+
+	@Benchmark
+	public Pose typedRoundTrip() {
+		PeisJavaMT.peisjava_setTuple("bench.pose.typed", new Pose(time++, 1.25, -3.5, 0.7853981633974483));
+		return PeisJavaMT.peisjava_getTuple(BenchmarkKernel.OWNER, "bench.pose.typed", Pose.class);
+	}
+
+	@Benchmark
+	public Pose stringRoundTrip() {
+		final Pose p = new Pose(time++, 1.25, -3.5, 0.7853981633974483);
+		PeisJavaMT.peisjava_setStringTuple("bench.pose.string", p.time() + " " + p.x() + " " + p.y() + " " + p.theta());
+		final String[] f = PeisJavaMT.peisjava_getStringTuple("bench.pose.string").split(" ");
+		return new Pose(Long.parseLong(f[0]), Double.parseDouble(f[1]), Double.parseDouble(f[2]), Double.parseDouble(f[3]));
+	}
+}
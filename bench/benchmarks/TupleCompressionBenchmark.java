@@ -0,0 +1,105 @@
+package benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.PeisJavaMT;
+import srnp.PeisTuple;
+
+/**
+ * CPU against bytes on the wire of transparent tuple compression, for an occupancy grid
+ * (one byte per cell: unknown, free or occupied, in contiguous regions) and an elevation
+ * map (float32 per cell, smooth terrain with sensor noise).  {@code wireBytes} counts the
+ * stored tuple sizes; {@code threshold = 0} is the uncompressed baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleCompressionBenchmark {
+
+	@Param({"grid", "map"})
+	public String kind;
+
+	@Param({"256", "1024"})
+	public int side;
+
+	@Param({"0", "4096"})
+	public int threshold;
+
+	private byte[] value;
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class Wire {
+		public long wireBytes;
+	}
+
+	@Setup
+	public void setup() {
+		BenchmarkKernel.start();
+		final Random r = new Random(42);
+		if ("grid".equals(kind)) {
+			value = new byte[side * side];
+			for (int y = 0; y < side; y++) {
+				for (int x = 0; x < side; x++) {
+					final double d = Math.hypot(x - side / 2, y - side / 2);
+					byte c = d < side / 3 ? (byte) 0 : (byte) -1;
+					if (d < side / 3 && (x / 16 + y / 16) % 7 == 0) {
+						c = 100;
+					}
+					value[y * side + x] = c;
+				}
+			}
+		} else {
+			final ByteBuffer b = ByteBuffer.allocate(side * side * 4).order(ByteOrder.LITTLE_ENDIAN);
+			for (int y = 0; y < side; y++) {
+				for (int x = 0; x < side; x++) {
+					b.putFloat((float) (Math.sin(x / 40.0) + Math.cos(y / 55.0) + r.nextGaussian() * 0.01));
+				}
+			}
+			value = b.array();
+		}
+		PeisJavaMT.peisjava_setCompressionThreshold(threshold);
+	}
+
+	@TearDown
+	public void tearDown() {
+		PeisJavaMT.peisjava_setCompressionThreshold(0);
+	}
+
+	@Benchmark
+	public int set(Wire wire) {
+		PeisJavaMT.peisjava_setTuple("bench.compress", value, "application/octet-stream");
+		final PeisTuple t = PeisJavaMT.peisjava_getTuple(BenchmarkKernel.OWNER, "bench.compress");
+		final int len = t.datalen;
+		PeisJavaMT.peisjava_freeTuple(t);
+		wire.wireBytes += len;
+		return len;
+	}
+
+	@Benchmark
+	public int setAndGet() {
+		PeisJavaMT.peisjava_setTuple("bench.compress", value, "application/octet-stream");
+		return PeisJavaMT.peisjava_getByteTuple(BenchmarkKernel.OWNER, "bench.compress").length;
+	}
+}
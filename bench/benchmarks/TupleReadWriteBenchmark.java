@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import srnp.PeisJavaMT;
+import srnp.PeisTuple;
+import srnp.PeisTupleView;
+
+/**
+ * Get and set of binary tuples for payloads from 16 B to 4 MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TupleReadWriteBenchmark {
+
+	@Param({"16", "256", "4096", "65536", "1048576", "4194304"})
+	public int size;
+
+	private byte[] payload;
+
+	@Setup
+	public void setup() {
+		BenchmarkKernel.start();
+		payload = BenchmarkKernel.payload(size);
+		PeisJavaMT.peisjava_setTuple("bench.rw", payload, "application/octet-stream");
+	}
+
+	@Benchmark
+	public void setTuple() {
+		PeisJavaMT.peisjava_setTuple("bench.rw", payload, "application/octet-stream");
+	}
+
+	@Benchmark
+	public byte[] getByteTuple() {
+		return PeisJavaMT.peisjava_getByteTuple(BenchmarkKernel.OWNER, "bench.rw");
+	}
+
+	@Benchmark
+	public PeisTuple getTuple() {
+		return PeisJavaMT.peisjava_getTuple(BenchmarkKernel.OWNER, "bench.rw");
+	}
+
+	@Benchmark
+	public int getTupleView() {
+		final PeisTupleView view = PeisJavaMT.peisjava_getTupleView(BenchmarkKernel.OWNER, "bench.rw");
+		final int len = view.getDatalen() + view.getByte(0);
+		PeisJavaMT.peisjava_freeTuple(view);
+		return len;
+	}
+}
@@ -0,0 +1,377 @@
+package srnp;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * {@link PeisJavaInterface} backend which calls the hot entry points of the srnp_wrapper
+ * library (get, set, subscribe and tuple callbacks) through {@code java.lang.foreign}
+ * downcall handles instead of the JNA proxy.  All other calls are delegated to the
+ * JNA binding.  Requires JDK 22 or later; selected with {@link PeisJavaMT#BACKEND_FFM}.
+ */
+final class PeisJavaFfm implements PeisJavaInterface {
+
+	/**
+	 * Interned key strings kept in native memory for the lifetime of the process.
+	 * Publishers use a small, fixed set of keys, so this is bounded in practice; keys
+	 * beyond {@link #MAX_INTERNED_KEYS} are allocated per call.
+	 */
+	private static final int MAX_INTERNED_KEYS = 4096;
+
+	private static final MethodHandle DISPATCH;
+
+	private static final MethodHandle DISPATCH_REF;
+
+	static {
+		try {
+			DISPATCH = MethodHandles.lookup().findStatic(PeisJavaFfm.class, "dispatch",
+					MethodType.methodType(void.class, PeisTupleCallback.class, MemorySegment.class, MemorySegment.class));
+			DISPATCH_REF = MethodHandles.lookup().findStatic(PeisJavaFfm.class, "dispatchRef",
+					MethodType.methodType(void.class, PeisTupleRefCallback.class, MemorySegment.class, MemorySegment.class));
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final PeisJavaInterface jna;
+
+	private final Linker linker = Linker.nativeLinker();
+
+	private final MethodHandle getTuple;
+	private final MethodHandle getTupleIndirectly;
+	private final MethodHandle setTuple;
+	private final MethodHandle setRemoteTuple;
+	private final MethodHandle subscribe;
+	private final MethodHandle unsubscribe;
+	private final MethodHandle registerTupleCallback;
+	private final MethodHandle unregisterTupleCallback;
+
+	private final ConcurrentHashMap<String, MemorySegment> keys = new ConcurrentHashMap<String, MemorySegment>();
+
+	private final ConcurrentHashMap<Double, Arena> callbackArenas = new ConcurrentHashMap<Double, Arena>();
+
+	private static final AtomicInteger subscriptionIds = new AtomicInteger();
+
+	/**
+	 * Subscription handle returned by {@link PeisJavaFfm#peiskmt_subscribe(int, String)}.
+	 * The native handle is kept as a full address; {@link #callback()} only numbers the
+	 * subscription, since an address does not fit an {@code int} on 64-bit platforms.
+	 */
+	private static final class Subscription implements PeisSubscriberHandle {
+		private final MemorySegment handle;
+		private final int id = subscriptionIds.incrementAndGet();
+
+		private Subscription(MemorySegment handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		public int callback() {
+			return id;
+		}
+	}
+
+	PeisJavaFfm(String library, PeisJavaInterface jna) {
+		this.jna = jna;
+		final SymbolLookup lookup = SymbolLookup.libraryLookup(System.mapLibraryName(library), Arena.global());
+		final ValueLayout.OfInt i = ValueLayout.JAVA_INT;
+		final ValueLayout p = ValueLayout.ADDRESS;
+
+		getTuple = downcall(lookup, "peiskmt_getTuple", FunctionDescriptor.of(p, i, p, i));
+		getTupleIndirectly = downcall(lookup, "peiskmt_getTupleIndirectly", FunctionDescriptor.of(p, i, p, i));
+		setTuple = downcall(lookup, "peiskmt_setTuple", FunctionDescriptor.ofVoid(p, i, p, p, i));
+		setRemoteTuple = downcall(lookup, "peiskmt_setRemoteTuple", FunctionDescriptor.ofVoid(i, p, i, p, p, i));
+		subscribe = downcall(lookup, "peiskmt_subscribe", FunctionDescriptor.of(p, i, p));
+		unsubscribe = downcall(lookup, "peiskmt_unsubscribe", FunctionDescriptor.of(i, p));
+		registerTupleCallback = downcall(lookup, "peiskmt_registerTupleCallback", FunctionDescriptor.of(ValueLayout.JAVA_DOUBLE, i, p, p, p));
+		unregisterTupleCallback = downcall(lookup, "peiskmt_unregisterTupleCallback", FunctionDescriptor.of(i, ValueLayout.JAVA_DOUBLE));
+	}
+
+	private MethodHandle downcall(SymbolLookup lookup, String name, FunctionDescriptor descriptor) {
+		return linker.downcallHandle(lookup.find(name).orElseThrow(
+				() -> new UnsatisfiedLinkError("Symbol " + name + " not found")), descriptor);
+	}
+
+	/**
+	 * Upcall target of the native tuple callbacks.
+	 */
+	private static void dispatch(PeisTupleCallback fn, MemorySegment tuple, MemorySegment userdata) {
+		try {
+			fn.callback(toTuple(tuple), PeisJavaUtilities.pointerAt(userdata.address()));
+		} catch (Throwable t) {
+			//An exception escaping an upcall would terminate the JVM
+			t.printStackTrace();
+		}
+	}
+
+	/**
+	 * Upcall target of the native tuple callbacks registered by reference.
+	 */
+	private static void dispatchRef(PeisTupleRefCallback fn, MemorySegment tuple, MemorySegment userdata) {
+		try {
+			fn.callback(toPointer(tuple), PeisJavaUtilities.pointerAt(userdata.address()));
+		} catch (Throwable t) {
+			t.printStackTrace();
+		}
+	}
+
+	private static Pointer toPointer(MemorySegment tuple) {
+		return tuple.address() == 0L ? null : PeisJavaUtilities.pointerAt(tuple.address());
+	}
+
+	private static PeisTuple toTuple(MemorySegment tuple) {
+		if(tuple.address() == 0L) {
+			return null;
+		}
+		return new PeisTuple(PeisJavaUtilities.pointerAt(tuple.address()));
+	}
+
+	private static MemorySegment segment(Pointer pointer) {
+		return MemorySegment.ofAddress(PeisJavaUtilities.addressOf(pointer));
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if(t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		}
+		if(t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IllegalStateException(t);
+	}
+
+	/**
+	 * Get the native copy of a key, interning it if there is room.
+	 */
+	private MemorySegment key(String key, Arena arena) {
+		if(key == null) {
+			return MemorySegment.NULL;
+		}
+		MemorySegment seg = keys.get(key);
+		if(seg != null) {
+			return seg;
+		}
+		if(keys.size() >= MAX_INTERNED_KEYS) {
+			return arena.allocateFrom(key);
+		}
+		seg = Arena.global().allocateFrom(key);
+		final MemorySegment old = keys.putIfAbsent(key, seg);
+		return old == null ? seg : old;
+	}
+
+	@Override
+	public PeisTuple peiskmt_getTuple(int owner, String key, int flags) {
+		try (Arena arena = Arena.ofConfined()) {
+			return toTuple((MemorySegment) getTuple.invokeExact(owner, key(key, arena), flags));
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public PeisTuple peiskmt_getTupleIndirectly(int metaOwner, String metaKey, int flags) {
+		try (Arena arena = Arena.ofConfined()) {
+			return toTuple((MemorySegment) getTupleIndirectly.invokeExact(metaOwner, key(metaKey, arena), flags));
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public Pointer peiskmt_getTupleRef(int owner, String key, int flags) {
+		try (Arena arena = Arena.ofConfined()) {
+			return toPointer((MemorySegment) getTuple.invokeExact(owner, key(key, arena), flags));
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public Pointer peiskmt_getTupleIndirectlyRef(int metaOwner, String metaKey, int flags) {
+		try (Arena arena = Arena.ofConfined()) {
+			return toPointer((MemorySegment) getTupleIndirectly.invokeExact(metaOwner, key(metaKey, arena), flags));
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void peiskmt_setTuple(String key, int len, Pointer data, String mimetype, int encoding) {
+		try (Arena arena = Arena.ofConfined()) {
+			setTuple.invokeExact(key(key, arena), len, segment(data), key(mimetype, arena), encoding);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public void peiskmt_setRemoteTuple(int owner, String key, int len, Pointer data, String mimetype, int encoding) {
+		try (Arena arena = Arena.ofConfined()) {
+			setRemoteTuple.invokeExact(owner, key(key, arena), len, segment(data), key(mimetype, arena), encoding);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public PeisSubscriberHandle peiskmt_subscribe(int owner, String key) {
+		try (Arena arena = Arena.ofConfined()) {
+			final MemorySegment handle = (MemorySegment) subscribe.invokeExact(owner, key(key, arena));
+			return handle.address() == 0L ? null : new Subscription(handle);
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public boolean peiskmt_unsubscribe(PeisSubscriberHandle handle) {
+		if(!(handle instanceof Subscription)) {
+			return jna.peiskmt_unsubscribe(handle);
+		}
+		try {
+			return (int) unsubscribe.invokeExact(((Subscription) handle).handle) != 0;
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public double peiskmt_registerTupleCallback(int owner, String key, Pointer userdata, PeisTupleCallback fn) {
+		return register(owner, key, userdata, DISPATCH.bindTo(fn));
+	}
+
+	@Override
+	public double peiskmt_registerTupleRefCallback(int owner, String key, Pointer userdata, PeisTupleRefCallback fn) {
+		return register(owner, key, userdata, DISPATCH_REF.bindTo(fn));
+	}
+
+	private double register(int owner, String key, Pointer userdata, MethodHandle target) {
+		final Arena arena = Arena.ofShared();
+		try {
+			final MemorySegment stub = linker.upcallStub(target,
+					FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.ADDRESS), arena);
+			final double handle = (double) registerTupleCallback.invokeExact(owner, key(key, arena), segment(userdata), stub);
+			callbackArenas.put(handle, arena);
+			return handle;
+		} catch (Throwable t) {
+			arena.close();
+			throw rethrow(t);
+		}
+	}
+
+	@Override
+	public int peiskmt_unregisterTupleCallback(double tupleCallback) {
+		try {
+			final int ret = (int) unregisterTupleCallback.invokeExact(tupleCallback);
+			final Arena arena = callbackArenas.remove(tupleCallback);
+			if(arena != null) {
+				arena.close();
+			}
+			return ret;
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/*
+	 * Cold entry points, delegated to JNA.
+	 */
+
+	@Override
+	public void peiskmt_initialize(IntByReference argc, String[] args, String[] env) {
+		jna.peiskmt_initialize(argc, args, env);
+	}
+
+	@Override
+	public void peiskmt_printTuple(PeisTuple tuple) {
+		jna.peiskmt_printTuple(tuple);
+	}
+
+	@Override
+	public void peiskmt_setStringTuple(String key, String value) {
+		jna.peiskmt_setStringTuple(key, value);
+	}
+
+	@Override
+	public boolean peiskmt_isRunning() {
+		return jna.peiskmt_isRunning();
+	}
+
+	@Override
+	public void peiskmt_deAllocateTuple(PeisTuple tuple) {
+		jna.peiskmt_deAllocateTuple(tuple);
+	}
+
+	@Override
+	public void peiskmt_deAllocateTupleRef(Pointer tuple) {
+		jna.peiskmt_deAllocateTupleRef(tuple);
+	}
+
+	@Override
+	public void peiskmt_subscribeIndirectly(int metaOwner, String metaKey) {
+		jna.peiskmt_subscribeIndirectly(metaOwner, metaKey);
+	}
+
+	@Override
+	public int peiskmt_setStringTupleIndirectly(int metaOwner, String metaKey, String value) {
+		return jna.peiskmt_setStringTupleIndirectly(metaOwner, metaKey, value);
+	}
+
+	@Override
+	public void peiskmt_declareMetaTuple(int metaOwner, String metaKey) {
+		jna.peiskmt_declareMetaTuple(metaOwner, metaKey);
+	}
+
+	@Override
+	public void peiskmt_setMetaTuple(int metaOwner, String metaKey, int realOwner, String realKey) {
+		jna.peiskmt_setMetaTuple(metaOwner, metaKey, realOwner, realKey);
+	}
+
+	@Override
+	public int peiskmt_peisid() {
+		return jna.peiskmt_peisid();
+	}
+
+	@Override
+	public void peiskmt_shutdown() {
+		jna.peiskmt_shutdown();
+	}
+
+	@Override
+	public void peiskmt_setRemoteStringTuple(int owner, String key, String value) {
+		jna.peiskmt_setRemoteStringTuple(owner, key, value);
+	}
+
+	@Override
+	public void peiskmt_registerMetaTupleCallback(int metaTupleOwner, String metaTupleKey, Pointer userdata, PeisTupleCallback fn) {
+		jna.peiskmt_registerMetaTupleCallback(metaTupleOwner, metaTupleKey, userdata, fn);
+	}
+
+	@Override
+	public void peiskmt_unregisterMetaTupleCallback(int metaTupleOwner, String metaTupleKey) {
+		jna.peiskmt_unregisterMetaTupleCallback(metaTupleOwner, metaTupleKey);
+	}
+
+	@Override
+	public int peiskmt_setTupleIndirectly(int metaOwner, String metaKey, int length, Memory m, String mimetype, int enc) {
+		return jna.peiskmt_setTupleIndirectly(metaOwner, metaKey, length, m, mimetype, enc);
+	}
+
+	@Override
+	public int peiskmt_setTuples(int count, Pointer buffer, int len) {
+		return jna.peiskmt_setTuples(count, buffer, len);
+	}
+}
@@ -0,0 +1,269 @@
+package srnp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decouples tuple callbacks from the kernel thread.  A {@link CallbackObject} registered
+ * through a dispatcher (see {@link PeisJavaMT#peisjava_registerTupleCallback(int, String, CallbackObject, CallbackDispatcher)})
+ * is not invoked by the kernel: the kernel thread only copies the tuple into a bounded queue
+ * of that subscription, and the callback runs on the dispatcher's {@link Executor}.  Updates
+ * of one subscription are delivered in order, one at a time; a slow consumer only fills its
+ * own queue, whose overflow is handled according to the {@link OverflowPolicy}.
+ */
+public class CallbackDispatcher {
+
+	/**
+	 * What to do with an update when the queue of its subscription is full.
+	 */
+	public enum OverflowPolicy {
+		/** Block the kernel thread until there is room (no update is lost). */
+		BLOCK,
+		/** Discard the oldest queued update. */
+		DROP_OLDEST,
+		/** Discard the incoming update. */
+		DROP_NEWEST
+	}
+
+	/**
+	 * Maximum number of updates delivered per executor task, so that subscriptions sharing
+	 * a small pool take turns.
+	 */
+	private static final int MAX_BATCH = 64;
+
+	private static ExecutorService sharedExecutor = null;
+
+	private final Executor executor;
+	private final int capacity;
+	private final OverflowPolicy policy;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final LongAdder delivered = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	/**
+	 * The {@link CallbackObject} registered with the kernel on behalf of a user callback.
+	 */
+	public final class Subscription extends CallbackObject implements Runnable {
+
+		private final CallbackObject target;
+		private final ArrayBlockingQueue<PeisTuple> queue;
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private final LongAdder subscriptionDropped = new LongAdder();
+
+		private Subscription(CallbackObject target) {
+			this.target = target;
+			this.queue = new ArrayBlockingQueue<PeisTuple>(capacity);
+		}
+
+		@Override
+		public void callback(PeisTuple tuple) {
+			if (enqueue(tuple.copy())) {
+				schedule();
+			}
+		}
+
+		private boolean enqueue(PeisTuple tuple) {
+			switch (policy) {
+			case BLOCK:
+				try {
+					queue.put(tuple);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					drop();
+					return false;
+				}
+				break;
+			case DROP_OLDEST:
+				while (!queue.offer(tuple)) {
+					if (queue.poll() != null) {
+						queued.decrementAndGet();
+						drop();
+					}
+				}
+				break;
+			case DROP_NEWEST:
+				if (!queue.offer(tuple)) {
+					drop();
+					return false;
+				}
+				break;
+			}
+			queued.incrementAndGet();
+			return true;
+		}
+
+		private void drop() {
+			subscriptionDropped.increment();
+			dropped.increment();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+
+		/**
+		 * Deliver queued updates to the user callback (runs on the executor).
+		 */
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < MAX_BATCH; i++) {
+					final PeisTuple tuple = queue.poll();
+					if (tuple == null) {
+						break;
+					}
+					queued.decrementAndGet();
+					try {
+						target.callback(tuple, null);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+					delivered.increment();
+				}
+			} finally {
+				scheduled.set(false);
+				if (!queue.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+
+		/**
+		 * @return The user callback.
+		 */
+		public CallbackObject getTarget() {
+			return target;
+		}
+
+		/**
+		 * @return The number of updates waiting for delivery.
+		 */
+		public int getQueueDepth() {
+			return queue.size();
+		}
+
+		/**
+		 * @return The number of updates of this subscription dropped on overflow.
+		 */
+		public long getDropped() {
+			return subscriptionDropped.sum();
+		}
+	}
+
+	/**
+	 * Create a dispatcher.
+	 * @param executor The executor running the user callbacks, e.g., from
+	 * {@link #newPlatformExecutor(int)} or {@link #newVirtualThreadExecutor()}.
+	 * @param capacity The capacity of the queue of each subscription.
+	 * @param policy What to do when a queue is full.
+	 */
+	public CallbackDispatcher(Executor executor, int capacity, OverflowPolicy policy) {
+		if (executor == null || policy == null) {
+			throw new IllegalArgumentException("Executor and overflow policy must be given");
+		}
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Queue capacity must be positive");
+		}
+		this.executor = executor;
+		this.capacity = capacity;
+		this.policy = policy;
+	}
+
+	/**
+	 * Create a pool of daemon platform threads for running callbacks.
+	 * @param threads The number of threads.
+	 * @return The executor.
+	 */
+	public static ExecutorService newPlatformExecutor(int threads) {
+		return newDaemonExecutor("srnp-callback-", threads);
+	}
+
+	static ExecutorService newDaemonExecutor(final String prefix, int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, prefix + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Get the executor used by callbacks that do not specify one: a pool of daemon
+	 * platform threads, one per available processor, created on first use.
+	 * @return The shared executor.
+	 */
+	public static synchronized ExecutorService sharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = newPlatformExecutor(Runtime.getRuntime().availableProcessors());
+		}
+		return sharedExecutor;
+	}
+	
+	/**
+	 * Create an executor running each callback batch on a new virtual thread (JDK 21 and later).
+	 * On older JDKs a pool of daemon platform threads is returned instead.
+	 * @return The executor.
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Virtual threads unavailable, using platform threads");
+			return newPlatformExecutor(Runtime.getRuntime().availableProcessors());
+		}
+	}
+
+	/**
+	 * Wrap a callback so that it is run by this dispatcher.  The returned object is what
+	 * must be registered with the kernel.
+	 * @param co The user callback.
+	 * @return The subscription forwarding updates to {@code co}.
+	 */
+	public Subscription wrap(CallbackObject co) {
+		if (co == null) {
+			throw new IllegalArgumentException("CallbackObject is null");
+		}
+		return new Subscription(co);
+	}
+
+	/**
+	 * @return The overflow policy of this dispatcher.
+	 */
+	public OverflowPolicy getOverflowPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return The number of updates waiting for delivery across all subscriptions.
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @return The number of updates delivered to user callbacks.
+	 */
+	public long getDelivered() {
+		return delivered.sum();
+	}
+
+	/**
+	 * @return The number of updates dropped on overflow across all subscriptions.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+}
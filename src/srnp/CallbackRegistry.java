@@ -0,0 +1,238 @@
+package srnp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jna.Pointer;
+
+import srnp.PeisJavaInterface.PeisTupleCallback;
+import srnp.PeisJavaInterface.PeisTupleRefCallback;
+
+/**
+ * Registry of the tuple callbacks of {@link PeisJavaMT}.  Listeners on the same (owner, key)
+ * share one kernel registration (one for {@link PeisTupleCallback}s and one for
+ * {@link PeisTupleRefCallback}s), which fans out to a copy-on-write array of listeners.
+ * The registry returns its own handles, mapped to their listener for O(1) removal; the
+ * kernel registration is cancelled with the last listener of a key.  Registry handles start
+ * at {@link #FIRST_HANDLE}, above any handle the kernel hands out, and are exact as doubles,
+ * so they never collide with kernel handles (positive and small) or the handles of the
+ * {@link KeyPatternDispatcher} (negative).  The callback objects
+ * handed to the kernel, as well as the listeners, stay referenced here while registered,
+ * so that JNA never frees a callback the kernel may still invoke.  No lock is shared between
+ * keys: the native registration of a channel is made and cancelled under the channel's
+ * monitor only, and a channel emptied by its last listener is retired, so that later
+ * listeners of its key get a new one.
+ */
+final class CallbackRegistry {
+
+	private static final PeisTupleCallback[] NO_LISTENERS = new PeisTupleCallback[0];
+	private static final PeisTupleRefCallback[] NO_REF_LISTENERS = new PeisTupleRefCallback[0];
+
+	/**
+	 * The kernel registrations of one (owner, key) and their listeners.
+	 */
+	private static final class Channel {
+		final TupleKey key;
+
+		volatile PeisTupleCallback[] listeners = NO_LISTENERS;
+		volatile PeisTupleRefCallback[] refListeners = NO_REF_LISTENERS;
+
+		/**
+		 * Kernel registrations and whether the channel was removed (guarded by the channel's monitor).
+		 */
+		double callback = 0.0;
+		double refCallback = 0.0;
+		boolean retired = false;
+
+		final PeisTupleCallback fanout = new PeisTupleCallback() {
+			@Override
+			public void callback(PeisTuple tuple, Pointer userdata) {
+				for (PeisTupleCallback l : listeners) {
+					try {
+						l.callback(tuple, userdata);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		};
+
+		final PeisTupleRefCallback refFanout = new PeisTupleRefCallback() {
+			@Override
+			public void callback(Pointer tuple, Pointer userdata) {
+				for (PeisTupleRefCallback l : refListeners) {
+					try {
+						l.callback(tuple, userdata);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		};
+
+		Channel(TupleKey key) {
+			this.key = key;
+		}
+
+		boolean isEmpty() {
+			return listeners.length == 0 && refListeners.length == 0;
+		}
+	}
+
+	private static final class Listener {
+		final Channel channel;
+		final Object fn;
+		final boolean ref;
+
+		Listener(Channel channel, Object fn, boolean ref) {
+			this.channel = channel;
+			this.fn = fn;
+			this.ref = ref;
+		}
+	}
+
+	private final ConcurrentHashMap<TupleKey, Channel> channels = new ConcurrentHashMap<TupleKey, Channel>();
+
+	private final ConcurrentHashMap<Double, Listener> listeners = new ConcurrentHashMap<Double, Listener>();
+
+	static final long FIRST_HANDLE = 1L << 40;
+
+	private final AtomicLong nextHandle = new AtomicLong(FIRST_HANDLE);
+
+
+	private double handle(Channel c, Object fn, boolean ref) {
+		final double handle = nextHandle.getAndIncrement();
+		listeners.put(handle, new Listener(c, fn, ref));
+		return handle;
+	}
+
+	/**
+	 * Add a tuple callback.
+	 * @return The handle of the listener.
+	 */
+	double add(int owner, String key, PeisTupleCallback fn) {
+		final TupleKey k = new TupleKey(owner, key);
+		for (;;) {
+			final Channel c = channels.computeIfAbsent(k, Channel::new);
+			synchronized (c) {
+				if (c.retired) {
+					continue;
+				}
+				if (c.listeners.length == 0) {
+					c.callback = PeisJavaMT.INSTANCE.peiskmt_registerTupleCallback(owner, key, null, c.fanout);
+				}
+				c.listeners = append(c.listeners, fn);
+				return handle(c, fn, false);
+			}
+		}
+	}
+
+	/**
+	 * Add a tuple callback receiving the struct pointer.
+	 * @return The handle of the listener.
+	 */
+	double addRef(int owner, String key, PeisTupleRefCallback fn) {
+		final TupleKey k = new TupleKey(owner, key);
+		for (;;) {
+			final Channel c = channels.computeIfAbsent(k, Channel::new);
+			synchronized (c) {
+				if (c.retired) {
+					continue;
+				}
+				if (c.refListeners.length == 0) {
+					c.refCallback = PeisJavaMT.INSTANCE.peiskmt_registerTupleRefCallback(owner, key, null, c.refFanout);
+				}
+				c.refListeners = append(c.refListeners, fn);
+				return handle(c, fn, true);
+			}
+		}
+	}
+
+	/**
+	 * Remove a listener.
+	 * @param handle A handle returned by {@link #add(int, String, PeisTupleCallback)} or
+	 * {@link #addRef(int, String, PeisTupleRefCallback)}.
+	 * @return {@code false} if the handle is unknown.
+	 */
+	boolean remove(double handle) {
+		final Listener l = listeners.remove(handle);
+		if (l == null) {
+			return false;
+		}
+		final Channel c = l.channel;
+		synchronized (c) {
+			if (l.ref) {
+				c.refListeners = removeFirst(c.refListeners, (PeisTupleRefCallback) l.fn);
+				if (c.refListeners.length == 0) {
+					PeisJavaMT.INSTANCE.peiskmt_unregisterTupleCallback(c.refCallback);
+				}
+			} else {
+				c.listeners = removeFirst(c.listeners, (PeisTupleCallback) l.fn);
+				if (c.listeners.length == 0) {
+					PeisJavaMT.INSTANCE.peiskmt_unregisterTupleCallback(c.callback);
+				}
+			}
+			if (c.isEmpty()) {
+				c.retired = true;
+				channels.remove(c.key, c);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The number of kernel registrations held.
+	 */
+	int getNativeRegistrations() {
+		int n = 0;
+		for (Channel c : channels.values()) {
+			n += (c.listeners.length > 0 ? 1 : 0) + (c.refListeners.length > 0 ? 1 : 0);
+		}
+		return n;
+	}
+
+	/**
+	 * @return The number of registered listeners.
+	 */
+	int getListeners() {
+		return listeners.size();
+	}
+
+	private static PeisTupleCallback[] append(PeisTupleCallback[] a, PeisTupleCallback fn) {
+		final PeisTupleCallback[] b = new PeisTupleCallback[a.length + 1];
+		System.arraycopy(a, 0, b, 0, a.length);
+		b[a.length] = fn;
+		return b;
+	}
+
+	private static PeisTupleRefCallback[] append(PeisTupleRefCallback[] a, PeisTupleRefCallback fn) {
+		final PeisTupleRefCallback[] b = new PeisTupleRefCallback[a.length + 1];
+		System.arraycopy(a, 0, b, 0, a.length);
+		b[a.length] = fn;
+		return b;
+	}
+
+	private static PeisTupleCallback[] removeFirst(PeisTupleCallback[] a, PeisTupleCallback fn) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == fn) {
+				final PeisTupleCallback[] b = new PeisTupleCallback[a.length - 1];
+				System.arraycopy(a, 0, b, 0, i);
+				System.arraycopy(a, i + 1, b, i, a.length - i - 1);
+				return b;
+			}
+		}
+		return a;
+	}
+
+	private static PeisTupleRefCallback[] removeFirst(PeisTupleRefCallback[] a, PeisTupleRefCallback fn) {
+		for (int i = 0; i < a.length; i++) {
+			if (a[i] == fn) {
+				final PeisTupleRefCallback[] b = new PeisTupleRefCallback[a.length - 1];
+				System.arraycopy(a, 0, b, 0, i);
+				System.arraycopy(a, i + 1, b, i, a.length - i - 1);
+				return b;
+			}
+		}
+		return a;
+	}
+}
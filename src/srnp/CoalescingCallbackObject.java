@@ -0,0 +1,98 @@
+package srnp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.jna.Pointer;
+
+/**
+ * A {@link CallbackObject} which only cares about the newest value of a tuple.  Updates
+ * arriving while the previous one is still being handled collapse into a single pending slot
+ * per (owner, key), so {@link #callback(PeisTuple)} always receives the most recent tuple
+ * when it becomes free and never falls behind under bursts.  Callbacks run on an
+ * {@link Executor}, never on the kernel thread, and one at a time per (owner, key).
+ * Register it like any other {@link CallbackObject}.
+ */
+public abstract class CoalescingCallbackObject extends CallbackObject {
+
+	private final Executor executor;
+
+	private final ConcurrentHashMap<TupleKey, Slot> slots = new ConcurrentHashMap<TupleKey, Slot>();
+
+	private final LongAdder superseded = new LongAdder();
+
+	private final class Slot implements Runnable {
+		private final AtomicReference<PeisTuple> pending = new AtomicReference<PeisTuple>();
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		void offer(PeisTuple tuple) {
+			if (pending.getAndSet(tuple) != null) {
+				superseded.increment();
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				final PeisTuple tuple = pending.getAndSet(null);
+				if (tuple != null) {
+					callback(tuple);
+				}
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				scheduled.set(false);
+				if (pending.get() != null) {
+					schedule();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create a coalescing callback running on {@link CallbackDispatcher#sharedExecutor()}.
+	 */
+	protected CoalescingCallbackObject() {
+		this(CallbackDispatcher.sharedExecutor());
+	}
+
+	/**
+	 * Create a coalescing callback running on the given executor.
+	 * @param executor The executor running {@link #callback(PeisTuple)}.
+	 */
+	protected CoalescingCallbackObject(Executor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public void callback(PeisTuple tuple, Pointer userdata) {
+		final PeisTuple copy = tuple.copy();
+		final TupleKey k = new TupleKey(copy.getOwner(), copy.getKey());
+		Slot slot = slots.get(k);
+		if (slot == null) {
+			final Slot fresh = new Slot();
+			slot = slots.putIfAbsent(k, fresh);
+			if (slot == null) {
+				slot = fresh;
+			}
+		}
+		slot.offer(copy);
+	}
+
+	/**
+	 * @return The number of updates that were replaced by a newer one before being delivered.
+	 */
+	public long getSuperseded() {
+		return superseded.sum();
+	}
+}
@@ -0,0 +1,76 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Rebuilds the value published by a {@link DeltaPublisher} and hands it to
+ * {@link #valueCallback(byte[], int)}.  Register it like any {@link CallbackObject} on the
+ * key of the publisher.  Keyframes and deltas are applied to one reusable buffer, so each
+ * update costs a copy of the changed bytes only.  Until the first keyframe, and after a
+ * missed update, deltas are ignored until the next keyframe.
+ */
+public abstract class DeltaCallbackObject extends CallbackObject {
+
+	private byte[] value = new byte[0];
+	private int length = 0;
+	private int seq = 0;
+	private boolean synced = false;
+	private long missed = 0;
+
+	/**
+	 * Called with the rebuilt value after each applied update.
+	 * @param value The buffer holding the value, reused for the following updates.
+	 * @param length The length of the value.
+	 */
+	public abstract void valueCallback(byte[] value, int length);
+
+	@Override
+	public synchronized void callback(PeisTuple tuple) {
+		final ByteBuffer in = tuple.getByteBuffer();
+		if (in == null || in.remaining() < DeltaPublisher.HEADER_SIZE) {
+			return;
+		}
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		final byte kind = in.get();
+		final int s = in.getInt();
+		final int len = in.getInt();
+		if (kind == DeltaPublisher.KEYFRAME) {
+			if (value.length < len) {
+				value = new byte[len];
+			}
+			in.get(value, 0, len);
+		} else if (synced && s == seq + 1 && len == length) {
+			final int ranges = in.getInt();
+			for (int i = 0; i < ranges; i++) {
+				final int offset = in.getInt();
+				in.get(value, offset, in.getInt());
+			}
+		} else {
+			if (synced && s - seq > 0) {
+				//An update was lost, wait for the next keyframe
+				synced = false;
+				missed++;
+			}
+			return;
+		}
+		seq = s;
+		length = len;
+		synced = true;
+		valueCallback(value, length);
+	}
+
+	/**
+	 * @return {@code true} if the value is current, i.e., a keyframe was received and no update was missed since.
+	 */
+	public synchronized boolean isSynced() {
+		return synced;
+	}
+
+	/**
+	 * @return The number of times an update was missed and the value went out of sync.
+	 */
+	public synchronized long getMissedCount() {
+		return missed;
+	}
+}
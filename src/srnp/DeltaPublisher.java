@@ -0,0 +1,208 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.sun.jna.Memory;
+
+/**
+ * Publishes a large, slowly changing binary value (e.g., an occupancy map) as a sequence of
+ * deltas: each update sets only the byte ranges that changed since the previous one, and a
+ * full keyframe is set every {@code keyframeInterval} updates, when the length changes, or
+ * when a delta would not be much smaller than the value.  Subscribers rebuild the value with a
+ * {@link DeltaCallbackObject}.  Updates are set on a single tuple with mimetype
+ * {@value #MIMETYPE}, laid out as little-endian:
+ * <pre>
+ * byte kind;     (0 keyframe, 1 delta)
+ * int seq;       (sequence number of the update, consecutive from the last keyframe)
+ * int length;    (length of the full value)
+ * keyframe: char value[length];
+ * delta:    int ranges; ranges times { int offset; int len; char bytes[len]; }
+ * </pre>
+ * A delta applies to the value of update {@code seq - 1}; a subscriber that misses an update
+ * waits for the next keyframe.
+ */
+public class DeltaPublisher {
+
+	public static final String MIMETYPE = "application/x-srnp-delta";
+
+	/**
+	 * Default number of updates between keyframes.
+	 */
+	public static final int DEFAULT_KEYFRAME_INTERVAL = 50;
+
+	static final byte KEYFRAME = 0;
+	static final byte DELTA = 1;
+	static final int HEADER_SIZE = 9;
+
+	/**
+	 * Unchanged runs shorter than this are sent as part of the surrounding range, since a
+	 * range costs 8 bytes of header.
+	 */
+	private static final int MIN_GAP = 8;
+
+	private final String key;
+	private final int keyframeInterval;
+
+	private byte[] previous = null;
+	private int seq = 0;
+	private int sinceKeyframe = 0;
+
+	/**
+	 * Start and end offsets of the changed ranges of the current update.
+	 */
+	private int[] ranges = new int[64];
+
+	private long keyframes = 0;
+	private long deltas = 0;
+	private long bytesSent = 0;
+
+	/**
+	 * Create a delta publisher for a tuple in local tuplespace.
+	 * @param key The key of the tuple.
+	 * @param keyframeInterval The maximum number of updates between keyframes.
+	 */
+	public DeltaPublisher(String key, int keyframeInterval) {
+		if (keyframeInterval <= 0) {
+			throw new IllegalArgumentException("Keyframe interval must be positive");
+		}
+		this.key = key;
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	/**
+	 * Create a delta publisher with a keyframe every {@link #DEFAULT_KEYFRAME_INTERVAL} updates.
+	 * @param key The key of the tuple.
+	 */
+	public DeltaPublisher(String key) {
+		this(key, DEFAULT_KEYFRAME_INTERVAL);
+	}
+
+	/**
+	 * Publish a new version of the value.  The array is not kept and may be reused by the caller.
+	 * @param value The value.
+	 * @return The number of bytes set, 0 if the value did not change.
+	 */
+	public synchronized int publish(byte[] value) {
+		if (previous == null || previous.length != value.length || sinceKeyframe + 1 >= keyframeInterval) {
+			return keyframe(value);
+		}
+		final int count = diff(value);
+		if (count == 0) {
+			return 0;
+		}
+		int size = HEADER_SIZE + 4;
+		for (int i = 0; i < count; i++) {
+			size += 8 + ranges[2 * i + 1] - ranges[2 * i];
+		}
+		if (size >= value.length / 2) {
+			return keyframe(value);
+		}
+		final Memory m = NativeBufferPool.shared().acquire(size);
+		try {
+			final ByteBuffer out = m.getByteBuffer(0, size).order(ByteOrder.LITTLE_ENDIAN);
+			out.put(DELTA).putInt(++seq).putInt(value.length).putInt(count);
+			for (int i = 0; i < count; i++) {
+				final int from = ranges[2 * i];
+				final int to = ranges[2 * i + 1];
+				out.putInt(from).putInt(to - from).put(value, from, to - from);
+				System.arraycopy(value, from, previous, from, to - from);
+			}
+			PeisJavaMT.INSTANCE.peiskmt_setTuple(key, size, m, MIMETYPE, 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
+		sinceKeyframe++;
+		deltas++;
+		bytesSent += size;
+		return size;
+	}
+
+	/**
+	 * Publish the next update as a keyframe, e.g., when new subscribers must be served quickly.
+	 */
+	public synchronized void requestKeyframe() {
+		sinceKeyframe = keyframeInterval;
+	}
+
+	private int keyframe(byte[] value) {
+		final int size = HEADER_SIZE + value.length;
+		final Memory m = NativeBufferPool.shared().acquire(size);
+		try {
+			m.getByteBuffer(0, size).order(ByteOrder.LITTLE_ENDIAN).put(KEYFRAME).putInt(++seq).putInt(value.length).put(value);
+			PeisJavaMT.INSTANCE.peiskmt_setTuple(key, size, m, MIMETYPE, 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
+		if (previous == null || previous.length != value.length) {
+			previous = value.clone();
+		} else {
+			System.arraycopy(value, 0, previous, 0, value.length);
+		}
+		sinceKeyframe = 0;
+		keyframes++;
+		bytesSent += size;
+		return size;
+	}
+
+	/**
+	 * Find the ranges in which a value differs from the previous one.
+	 * @return The number of ranges.
+	 */
+	private int diff(byte[] value) {
+		final int n = value.length;
+		int count = 0;
+		int i = 0;
+		while (i < n) {
+			final int m = Arrays.mismatch(previous, i, n, value, i, n);
+			if (m < 0) {
+				break;
+			}
+			final int start = i + m;
+			int end = start + 1;
+			int equal = 0;
+			while (end < n && equal < MIN_GAP) {
+				equal = previous[end] == value[end] ? equal + 1 : 0;
+				end++;
+			}
+			end -= equal;
+			if (2 * count + 2 > ranges.length) {
+				ranges = Arrays.copyOf(ranges, 2 * ranges.length);
+			}
+			ranges[2 * count] = start;
+			ranges[2 * count + 1] = end;
+			count++;
+			i = end;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The key of the tuple.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return The number of keyframes published.
+	 */
+	public synchronized long getKeyframeCount() {
+		return keyframes;
+	}
+
+	/**
+	 * @return The number of deltas published.
+	 */
+	public synchronized long getDeltaCount() {
+		return deltas;
+	}
+
+	/**
+	 * @return The number of bytes set, headers included.
+	 */
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+}
@@ -0,0 +1,220 @@
+package srnp;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatches tuple updates to callbacks registered on key patterns (see
+ * {@link PeisJavaMT#peisjava_registerPatternCallback(int, String, CallbackObject)}).  Keys are
+ * dot-separated; in a pattern, {@code *} matches exactly one segment and a trailing
+ * {@code **} matches any number of remaining segments (including none), e.g.,
+ * {@code sensors.lidar.*} or {@code sensors.**}.  The kernel calls back once per update
+ * through a single wildcard-key tuple callback per owner; the key is then matched
+ * against a trie of pattern segments, so the cost of an update depends on the depth of
+ * its key rather than on the number of patterns.  Patterns registered with owner -1
+ * match updates from any owner.
+ * <br><br>
+ * This relies on the kernel accepting a {@code null} (wildcard) key in
+ * {@code peiskmt_registerTupleCallback}.  Like other callbacks, pattern callbacks only see
+ * the tuples that reach this peis: remote tuples must still be subscribed to.
+ */
+final class KeyPatternDispatcher {
+
+	static final String ONE_SEGMENT = "*";
+	static final String ANY_SEGMENTS = "**";
+
+	private static final class Node {
+		final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<String, Node>();
+		volatile Node star = null;
+		/**
+		 * Callbacks of the patterns ending at this node.
+		 */
+		final CopyOnWriteArrayList<Registration> exact = new CopyOnWriteArrayList<Registration>();
+		/**
+		 * Callbacks of the patterns ending with {@code **} after this node.
+		 */
+		final CopyOnWriteArrayList<Registration> rest = new CopyOnWriteArrayList<Registration>();
+	}
+
+	private static final class Registration {
+		final double handle;
+		final int owner;
+		final String[] segments;
+		final CallbackObject co;
+
+		Registration(double handle, int owner, String[] segments, CallbackObject co) {
+			this.handle = handle;
+			this.owner = owner;
+			this.segments = segments;
+			this.co = co;
+		}
+	}
+
+	/**
+	 * The trie of one owner and the kernel callback feeding it.
+	 */
+	private final class OwnerIndex extends CallbackObject {
+		final int owner;
+		final Node root = new Node();
+		int patterns = 0;
+		double callback = 0.0;
+
+		OwnerIndex(int owner) {
+			this.owner = owner;
+		}
+
+		@Override
+		public void callback(PeisTuple tuple) {
+			final String key = tuple.getKey();
+			if (key != null) {
+				dispatch(root, key, 0, tuple);
+			}
+		}
+	}
+
+	private final HashMap<Integer, OwnerIndex> owners = new HashMap<Integer, OwnerIndex>();
+
+	private final ConcurrentHashMap<Double, Registration> registrations = new ConcurrentHashMap<Double, Registration>();
+
+	/**
+	 * Pattern handles are negative, so they are never confused with kernel callback handles.
+	 */
+	private final AtomicLong nextHandle = new AtomicLong(-1);
+
+	static String[] parse(String pattern) {
+		if (pattern == null || pattern.isEmpty()) {
+			throw new IllegalArgumentException("Key pattern is empty");
+		}
+		final String[] segments = pattern.split("\\.", -1);
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].isEmpty()) {
+				throw new IllegalArgumentException("Empty segment in key pattern " + pattern);
+			}
+			if (ANY_SEGMENTS.equals(segments[i]) && i != segments.length - 1) {
+				throw new IllegalArgumentException(ANY_SEGMENTS + " must be the last segment of key pattern " + pattern);
+			}
+		}
+		return segments;
+	}
+
+	private static void deliver(CopyOnWriteArrayList<Registration> regs, PeisTuple tuple) {
+		for (Registration r : regs) {
+			try {
+				r.co.callback(tuple, null);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Deliver a tuple to the patterns under {@code node} matching the key from {@code from} on.
+	 */
+	private static void dispatch(Node node, String key, int from, PeisTuple tuple) {
+		deliver(node.rest, tuple);
+		if (from > key.length()) {
+			deliver(node.exact, tuple);
+			return;
+		}
+		int end = key.indexOf('.', from);
+		if (end < 0) {
+			end = key.length();
+		}
+		final Node child = node.children.isEmpty() ? null : node.children.get(key.substring(from, end));
+		if (child != null) {
+			dispatch(child, key, end + 1, tuple);
+		}
+		final Node star = node.star;
+		if (star != null) {
+			dispatch(star, key, end + 1, tuple);
+		}
+	}
+
+	/**
+	 * Register a callback on a key pattern.
+	 * @return The handle of the registration.
+	 */
+	synchronized double register(int owner, String pattern, CallbackObject co) {
+		if (co == null) {
+			throw new IllegalArgumentException("CallbackObject is null");
+		}
+		final String[] segments = parse(pattern);
+		OwnerIndex index = owners.get(owner);
+		if (index == null) {
+			index = new OwnerIndex(owner);
+			index.callback = PeisJavaMT.peisjava_registerTupleCallback(owner, null, index);
+			owners.put(owner, index);
+		}
+		final Registration r = new Registration(nextHandle.getAndDecrement(), owner, segments, co);
+		Node node = index.root;
+		for (int i = 0; i < segments.length; i++) {
+			final String s = segments[i];
+			if (ANY_SEGMENTS.equals(s)) {
+				node.rest.add(r);
+				node = null;
+				break;
+			}
+			if (ONE_SEGMENT.equals(s)) {
+				if (node.star == null) {
+					node.star = new Node();
+				}
+				node = node.star;
+			} else {
+				Node child = node.children.get(s);
+				if (child == null) {
+					child = new Node();
+					node.children.put(s, child);
+				}
+				node = child;
+			}
+		}
+		if (node != null) {
+			node.exact.add(r);
+		}
+		index.patterns++;
+		registrations.put(r.handle, r);
+		return r.handle;
+	}
+
+	/**
+	 * Remove a pattern callback; the kernel callback of its owner is cancelled with the last pattern.
+	 * @return {@code true} iff the handle was registered.
+	 */
+	synchronized boolean unregister(double handle) {
+		final Registration r = registrations.remove(handle);
+		if (r == null) {
+			return false;
+		}
+		final OwnerIndex index = owners.get(r.owner);
+		remove(index.root, r, 0);
+		if (--index.patterns == 0) {
+			owners.remove(r.owner);
+			PeisJavaMT.peisjava_unregisterTupleCallback(index.callback);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove a registration below {@code node}, pruning nodes left empty.
+	 * @return {@code true} if {@code node} is empty afterwards.
+	 */
+	private static boolean remove(Node node, Registration r, int i) {
+		if (i == r.segments.length) {
+			node.exact.remove(r);
+		} else if (ANY_SEGMENTS.equals(r.segments[i])) {
+			node.rest.remove(r);
+		} else if (ONE_SEGMENT.equals(r.segments[i])) {
+			if (node.star != null && remove(node.star, r, i + 1)) {
+				node.star = null;
+			}
+		} else {
+			final Node child = node.children.get(r.segments[i]);
+			if (child != null && remove(child, r, i + 1)) {
+				node.children.remove(r.segments[i]);
+			}
+		}
+		return node.exact.isEmpty() && node.rest.isEmpty() && node.star == null && node.children.isEmpty();
+	}
+}
@@ -0,0 +1,334 @@
+package srnp;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * Decorator of a {@link PeisJavaInterface} backend recording {@link PeisJavaMetrics}.
+ * Tuple callbacks are wrapped to time their execution per key; the wrappers are held
+ * here until unregistered, as the native side only keeps weak references to them.
+ */
+final class MeteredBackend implements PeisJavaInterface {
+
+	private final PeisJavaInterface backend;
+
+	private final ConcurrentHashMap<Double, Object> callbacks = new ConcurrentHashMap<Double, Object>();
+
+	private static final class MeteredCallback implements PeisTupleCallback {
+		private final PeisTupleCallback fn;
+		private final OperationStats stats;
+
+		MeteredCallback(PeisTupleCallback fn, OperationStats stats) {
+			this.fn = fn;
+			this.stats = stats;
+		}
+
+		@Override
+		public void callback(PeisTuple tuple, Pointer userdata) {
+			final long t0 = PeisJavaMetrics.start();
+			try {
+				fn.callback(tuple, userdata);
+			} catch (Throwable t) {
+				stats.recordError(t0);
+				throw t;
+			}
+			stats.record(t0, tuple == null ? 0 : tuple.datalen);
+		}
+	}
+
+	private static final class MeteredRefCallback implements PeisTupleRefCallback {
+		private final PeisTupleRefCallback fn;
+		private final OperationStats stats;
+
+		MeteredRefCallback(PeisTupleRefCallback fn, OperationStats stats) {
+			this.fn = fn;
+			this.stats = stats;
+		}
+
+		@Override
+		public void callback(Pointer tuple, Pointer userdata) {
+			final long t0 = PeisJavaMetrics.start();
+			try {
+				fn.callback(tuple, userdata);
+			} catch (Throwable t) {
+				stats.recordError(t0);
+				throw t;
+			}
+			stats.record(t0, datalen(tuple));
+		}
+	}
+
+	MeteredBackend(PeisJavaInterface backend) {
+		this.backend = backend;
+	}
+
+	private static int datalen(Pointer tuple) {
+		return tuple == null ? 0 : tuple.getInt(PeisTupleLayout.DATALEN);
+	}
+
+	private static int datalen(PeisTuple tuple) {
+		return tuple == null ? 0 : tuple.datalen;
+	}
+
+	@Override
+	public PeisTuple peiskmt_getTuple(int owner, String key, int flags) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final PeisTuple tuple = backend.peiskmt_getTuple(owner, key, flags);
+			PeisJavaMetrics.GET.record(t0, datalen(tuple));
+			return tuple;
+		} catch (Throwable t) {
+			PeisJavaMetrics.GET.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public Pointer peiskmt_getTupleRef(int owner, String key, int flags) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final Pointer tuple = backend.peiskmt_getTupleRef(owner, key, flags);
+			PeisJavaMetrics.GET.record(t0, datalen(tuple));
+			return tuple;
+		} catch (Throwable t) {
+			PeisJavaMetrics.GET.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public PeisTuple peiskmt_getTupleIndirectly(int metaOwner, String metaKey, int flags) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final PeisTuple tuple = backend.peiskmt_getTupleIndirectly(metaOwner, metaKey, flags);
+			PeisJavaMetrics.GET_INDIRECT.record(t0, datalen(tuple));
+			return tuple;
+		} catch (Throwable t) {
+			PeisJavaMetrics.GET_INDIRECT.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public Pointer peiskmt_getTupleIndirectlyRef(int metaOwner, String metaKey, int flags) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final Pointer tuple = backend.peiskmt_getTupleIndirectlyRef(metaOwner, metaKey, flags);
+			PeisJavaMetrics.GET_INDIRECT.record(t0, datalen(tuple));
+			return tuple;
+		} catch (Throwable t) {
+			PeisJavaMetrics.GET_INDIRECT.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public void peiskmt_setTuple(String key, int len, Pointer data, String mimetype, int encoding) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			backend.peiskmt_setTuple(key, len, data, mimetype, encoding);
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET.recordError(t0);
+			throw t;
+		}
+		PeisJavaMetrics.SET.record(t0, len);
+	}
+
+	@Override
+	public void peiskmt_setStringTuple(String key, String value) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			backend.peiskmt_setStringTuple(key, value);
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET.recordError(t0);
+			throw t;
+		}
+		PeisJavaMetrics.SET.record(t0, value == null ? 0 : StringCodec.encodedLength(value) + 1);
+	}
+
+	@Override
+	public int peiskmt_setTuples(int count, Pointer buffer, int len) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final int ret = backend.peiskmt_setTuples(count, buffer, len);
+			PeisJavaMetrics.SET_BATCH.record(t0, len);
+			return ret;
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET_BATCH.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public void peiskmt_setRemoteTuple(int owner, String key, int len, Pointer data, String mimetype, int encoding) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			backend.peiskmt_setRemoteTuple(owner, key, len, data, mimetype, encoding);
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET_REMOTE.recordError(t0);
+			throw t;
+		}
+		PeisJavaMetrics.SET_REMOTE.record(t0, len);
+	}
+
+	@Override
+	public void peiskmt_setRemoteStringTuple(int owner, String key, String value) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			backend.peiskmt_setRemoteStringTuple(owner, key, value);
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET_REMOTE.recordError(t0);
+			throw t;
+		}
+		PeisJavaMetrics.SET_REMOTE.record(t0, value == null ? 0 : StringCodec.encodedLength(value) + 1);
+	}
+
+	@Override
+	public int peiskmt_setTupleIndirectly(int metaOwner, String metaKey, int length, Memory m, String mimetype, int enc) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final int ret = backend.peiskmt_setTupleIndirectly(metaOwner, metaKey, length, m, mimetype, enc);
+			PeisJavaMetrics.SET_INDIRECT.record(t0, length);
+			return ret;
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET_INDIRECT.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public int peiskmt_setStringTupleIndirectly(int metaOwner, String metaKey, String value) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final int ret = backend.peiskmt_setStringTupleIndirectly(metaOwner, metaKey, value);
+			PeisJavaMetrics.SET_INDIRECT.record(t0, value == null ? 0 : StringCodec.encodedLength(value) + 1);
+			return ret;
+		} catch (Throwable t) {
+			PeisJavaMetrics.SET_INDIRECT.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public PeisSubscriberHandle peiskmt_subscribe(int owner, String key) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final PeisSubscriberHandle handle = backend.peiskmt_subscribe(owner, key);
+			PeisJavaMetrics.SUBSCRIBE.record(t0, 0);
+			return handle;
+		} catch (Throwable t) {
+			PeisJavaMetrics.SUBSCRIBE.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public void peiskmt_subscribeIndirectly(int metaOwner, String metaKey) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			backend.peiskmt_subscribeIndirectly(metaOwner, metaKey);
+		} catch (Throwable t) {
+			PeisJavaMetrics.SUBSCRIBE_INDIRECT.recordError(t0);
+			throw t;
+		}
+		PeisJavaMetrics.SUBSCRIBE_INDIRECT.record(t0, 0);
+	}
+
+	@Override
+	public boolean peiskmt_unsubscribe(PeisSubscriberHandle handle) {
+		final long t0 = PeisJavaMetrics.start();
+		try {
+			final boolean ret = backend.peiskmt_unsubscribe(handle);
+			PeisJavaMetrics.UNSUBSCRIBE.record(t0, 0);
+			return ret;
+		} catch (Throwable t) {
+			PeisJavaMetrics.UNSUBSCRIBE.recordError(t0);
+			throw t;
+		}
+	}
+
+	@Override
+	public double peiskmt_registerTupleCallback(int owner, String key, Pointer userdata, PeisTupleCallback fn) {
+		final MeteredCallback metered = new MeteredCallback(fn, PeisJavaMetrics.callback(key));
+		final double handle = backend.peiskmt_registerTupleCallback(owner, key, userdata, metered);
+		callbacks.put(handle, metered);
+		return handle;
+	}
+
+	@Override
+	public double peiskmt_registerTupleRefCallback(int owner, String key, Pointer userdata, PeisTupleRefCallback fn) {
+		final MeteredRefCallback metered = new MeteredRefCallback(fn, PeisJavaMetrics.callback(key));
+		final double handle = backend.peiskmt_registerTupleRefCallback(owner, key, userdata, metered);
+		callbacks.put(handle, metered);
+		return handle;
+	}
+
+	@Override
+	public int peiskmt_unregisterTupleCallback(double tupleCallback) {
+		final int ret = backend.peiskmt_unregisterTupleCallback(tupleCallback);
+		callbacks.remove(tupleCallback);
+		return ret;
+	}
+
+	/*
+	 * Not recorded.
+	 */
+
+	@Override
+	public void peiskmt_initialize(IntByReference argc, String[] args, String[] env) {
+		backend.peiskmt_initialize(argc, args, env);
+	}
+
+	@Override
+	public void peiskmt_printTuple(PeisTuple tuple) {
+		backend.peiskmt_printTuple(tuple);
+	}
+
+	@Override
+	public boolean peiskmt_isRunning() {
+		return backend.peiskmt_isRunning();
+	}
+
+	@Override
+	public void peiskmt_deAllocateTuple(PeisTuple tuple) {
+		backend.peiskmt_deAllocateTuple(tuple);
+	}
+
+	@Override
+	public void peiskmt_deAllocateTupleRef(Pointer tuple) {
+		backend.peiskmt_deAllocateTupleRef(tuple);
+	}
+
+	@Override
+	public void peiskmt_declareMetaTuple(int metaOwner, String metaKey) {
+		backend.peiskmt_declareMetaTuple(metaOwner, metaKey);
+	}
+
+	@Override
+	public void peiskmt_setMetaTuple(int metaOwner, String metaKey, int realOwner, String realKey) {
+		backend.peiskmt_setMetaTuple(metaOwner, metaKey, realOwner, realKey);
+	}
+
+	@Override
+	public int peiskmt_peisid() {
+		return backend.peiskmt_peisid();
+	}
+
+	@Override
+	public void peiskmt_shutdown() {
+		backend.peiskmt_shutdown();
+	}
+
+	@Override
+	public void peiskmt_registerMetaTupleCallback(int metaTupleOwner, String metaTupleKey, Pointer userdata, PeisTupleCallback fn) {
+		backend.peiskmt_registerMetaTupleCallback(metaTupleOwner, metaTupleKey, userdata, fn);
+	}
+
+	@Override
+	public void peiskmt_unregisterMetaTupleCallback(int metaTupleOwner, String metaTupleKey) {
+		backend.peiskmt_unregisterMetaTupleCallback(metaTupleOwner, metaTupleKey);
+	}
+}
@@ -0,0 +1,156 @@
+package srnp;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.jna.Memory;
+
+/**
+ * A thread-safe pool of reusable native buffers, organized in power-of-two size classes
+ * (64 B to 16 MB).  Used on the tuple write paths, which would otherwise allocate a new
+ * {@link Memory} per call and leave its release to the finalizer.  Buffers are taken with
+ * {@link #acquire(int)} and must be handed back with {@link #release(Memory)} once the
+ * native call has returned.  Requests above the largest size class are served by
+ * unpooled buffers.
+ */
+public final class NativeBufferPool {
+
+	private static final int MIN_SHIFT = 6;
+
+	private static final int MAX_SHIFT = 24;
+
+	/**
+	 * Upper bound on the bytes retained per size class.
+	 */
+	private static final long MAX_RETAINED_PER_CLASS = 64L << 20;
+
+	private static final int MAX_BUFFERS_PER_CLASS = 32;
+
+	private static final NativeBufferPool SHARED = new NativeBufferPool();
+
+	private final ArrayBlockingQueue<Memory>[] classes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder unpooled = new LongAdder();
+	private final LongAdder discarded = new LongAdder();
+
+	/**
+	 * Create an empty pool.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public NativeBufferPool() {
+		classes = new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+		for(int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+			final long perClass = Math.max(2, MAX_RETAINED_PER_CLASS >> shift);
+			classes[shift - MIN_SHIFT] = new ArrayBlockingQueue<Memory>((int) Math.min(MAX_BUFFERS_PER_CLASS, perClass));
+		}
+	}
+
+	/**
+	 * Get the pool used by {@link PeisJavaMT} and {@link PeisTuple}.
+	 * @return The shared pool.
+	 */
+	public static NativeBufferPool shared() {
+		return SHARED;
+	}
+
+	private static int shiftFor(long size) {
+		if(size <= (1L << MIN_SHIFT)) {
+			return MIN_SHIFT;
+		}
+		return 64 - Long.numberOfLeadingZeros(size - 1);
+	}
+
+	/**
+	 * Get a native buffer of at least the given size.
+	 * @param size The number of bytes needed.
+	 * @return A buffer whose size is the size class of {@code size}.
+	 */
+	public Memory acquire(int size) {
+		final int shift = shiftFor(size);
+		if(shift > MAX_SHIFT) {
+			unpooled.increment();
+			return new Memory(size);
+		}
+		final Memory m = classes[shift - MIN_SHIFT].poll();
+		if(m != null) {
+			hits.increment();
+			return m;
+		}
+		misses.increment();
+		return new Memory(1L << shift);
+	}
+
+	/**
+	 * Get a native buffer holding a copy of the given data.
+	 * @param data The data to copy.
+	 * @return A buffer from {@link #acquire(int)}.
+	 */
+	public Memory copyOf(byte[] data) {
+		final Memory m = acquire(data.length);
+		m.write(0, data, 0, data.length);
+		return m;
+	}
+
+	/**
+	 * Return a buffer to the pool.  Buffers that are not of a pooled size class, or whose
+	 * class is full, are left to the garbage collector.
+	 * @param m A buffer obtained from {@link #acquire(int)}, or {@code null}.
+	 */
+	public void release(Memory m) {
+		if(m == null) {
+			return;
+		}
+		final long size = m.getSize();
+		final int shift = shiftFor(size);
+		if(shift > MAX_SHIFT || size != (1L << shift) || !classes[shift - MIN_SHIFT].offer(m)) {
+			discarded.increment();
+		}
+	}
+
+	/**
+	 * @return The number of acquisitions served from the pool.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of acquisitions that had to allocate a new pooled-size buffer.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of acquisitions larger than the largest size class.
+	 */
+	public long getUnpooled() {
+		return unpooled.sum();
+	}
+
+	/**
+	 * @return The number of released buffers that were not retained.
+	 */
+	public long getDiscarded() {
+		return discarded.sum();
+	}
+
+	/**
+	 * @return The number of bytes currently held by the pool.
+	 */
+	public long getRetainedBytes() {
+		long bytes = 0;
+		for(int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+			bytes += (long) classes[shift - MIN_SHIFT].size() << shift;
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "NativeBufferPool <hits=" + getHits() + ", misses=" + getMisses() + ", unpooled=" + getUnpooled()
+				+ ", discarded=" + getDiscarded() + ", retained=" + getRetainedBytes() + ">";
+	}
+}
@@ -0,0 +1,166 @@
+package srnp;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free implementation of {@link OperationStatsMXBean}: all counters are striped
+ * {@link LongAdder}s, so recording from many threads does not contend.
+ */
+final class OperationStats implements OperationStatsMXBean {
+
+	/**
+	 * Number of latency buckets; the last one collects everything from about 34 s.
+	 */
+	static final int BUCKETS = 37;
+
+	private final String name;
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+	private volatile long since = System.nanoTime();
+
+	OperationStats(String name) {
+		this.name = name;
+		for(int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	private static int bucket(long nanos) {
+		if(nanos <= 0) {
+			return 0;
+		}
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Record a completed call.
+	 * @param start The value of {@link PeisJavaMetrics#start()} before the call.
+	 * @param bytes The number of tuple data bytes written or read.
+	 */
+	void record(long start, long bytes) {
+		if(start == 0L) {
+			return;
+		}
+		final long nanos = System.nanoTime() - start;
+		count.increment();
+		if(bytes > 0) {
+			this.bytes.add(bytes);
+		}
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		buckets[bucket(nanos)].increment();
+	}
+
+	/**
+	 * Record a call that threw.
+	 * @param start The value of {@link PeisJavaMetrics#start()} before the call.
+	 */
+	void recordError(long start) {
+		if(start == 0L) {
+			return;
+		}
+		errors.increment();
+	}
+
+	private long percentile(double p) {
+		final long[] h = getHistogram();
+		long total = 0;
+		for(long c : h) {
+			total += c;
+		}
+		if(total == 0) {
+			return 0L;
+		}
+		final long rank = (long) Math.ceil(p * total);
+		long seen = 0;
+		for(int i = 0; i < h.length; i++) {
+			seen += h[i];
+			if(seen >= rank) {
+				return 1L << i;
+			}
+		}
+		return 1L << (h.length - 1);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public double getRatePerSecond() {
+		final long elapsed = System.nanoTime() - since;
+		return elapsed <= 0 ? 0.0 : count.sum() * 1e9 / elapsed;
+	}
+
+	@Override
+	public double getMeanNanos() {
+		final long n = count.sum();
+		return n == 0 ? 0.0 : (double) totalNanos.sum() / n;
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	@Override
+	public long getMedianNanos() {
+		return percentile(0.5);
+	}
+
+	@Override
+	public long get99thPercentileNanos() {
+		return percentile(0.99);
+	}
+
+	@Override
+	public long[] getHistogram() {
+		final long[] h = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			h[i] = buckets[i].sum();
+		}
+		return h;
+	}
+
+	@Override
+	public void reset() {
+		count.reset();
+		errors.reset();
+		bytes.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		for(LongAdder b : buckets) {
+			b.reset();
+		}
+		since = System.nanoTime();
+	}
+
+	@Override
+	public String toString() {
+		return "OperationStats <" + name + ", count=" + getCount() + ", errors=" + getErrors() + ", bytes=" + getBytes()
+				+ ", mean=" + (long) getMeanNanos() + "ns, p99<=" + get99thPercentileNanos() + "ns>";
+	}
+}
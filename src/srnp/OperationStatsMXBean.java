@@ -0,0 +1,67 @@
+package srnp;
+
+/**
+ * Counters and latency distribution of one kind of call into the kernel, or of the
+ * callbacks registered on one key.  Registered with the platform MBean server under
+ * {@code srnp:type=Operation,name=<operation>} and {@code srnp:type=Callback,key=<key>}.
+ * Latencies are kept in power-of-two buckets, so percentiles are upper bounds within a
+ * factor of two.
+ */
+public interface OperationStatsMXBean {
+
+	/**
+	 * @return The operation name or tuple key.
+	 */
+	String getName();
+
+	/**
+	 * @return The number of completed calls.
+	 */
+	long getCount();
+
+	/**
+	 * @return The number of calls that threw.
+	 */
+	long getErrors();
+
+	/**
+	 * @return The number of tuple data bytes written or read by the calls.
+	 */
+	long getBytes();
+
+	/**
+	 * @return The number of calls per second since creation or the last {@link #reset()}.
+	 */
+	double getRatePerSecond();
+
+	/**
+	 * @return The mean duration of a call in nanoseconds.
+	 */
+	double getMeanNanos();
+
+	/**
+	 * @return The longest duration of a call in nanoseconds.
+	 */
+	long getMaxNanos();
+
+	/**
+	 * @return The upper bound of the median duration in nanoseconds.
+	 */
+	long getMedianNanos();
+
+	/**
+	 * @return The upper bound of the 99th percentile duration in nanoseconds.
+	 */
+	long get99thPercentileNanos();
+
+	/**
+	 * @return The number of calls per bucket; bucket {@code i} counts durations below
+	 * {@code 2^i} nanoseconds (and at least {@code 2^(i-1)}).
+	 */
+	long[] getHistogram();
+
+	/**
+	 * Set all counters to zero.
+	 */
+	void reset();
+}
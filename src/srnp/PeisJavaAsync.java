@@ -0,0 +1,265 @@
+package srnp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous facade of the tuple operations of {@link PeisJavaMT}.  Each call is run on
+ * an I/O executor and returns a {@link CompletableFuture}, so that callers can compose
+ * tuple reads and writes without blocking their own threads.  Reads complete with
+ * {@code null} if the tuple does not exist; to wait for a tuple to appear or change, use the
+ * {@code awaitXxx} methods, which are completed by the tuple callback itself (as
+ * {@link PeisJavaMT#peisjava_awaitTuple(int, String, long, long, TimeUnit)}) and hold no
+ * executor thread while they wait.  Tuples
+ * are completed as detached copies (see {@link PeisTuple#copy()}), which need not be freed.
+ * The shared instance (see {@link #shared()}) runs on a pool of daemon threads; instances
+ * with another executor can be created with {@link #PeisJavaAsync(Executor)}.
+ */
+public final class PeisJavaAsync {
+
+	private static final int SHARED_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	private static PeisJavaAsync shared = null;
+
+	private final Executor executor;
+
+	/**
+	 * Create a facade running its calls on the given executor.
+	 * @param executor The executor running the (blocking) kernel calls.
+	 */
+	public PeisJavaAsync(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor must be given");
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * Get the facade used by {@link PeisJavaMT#peisjava_async()}, whose calls run on a
+	 * dedicated pool of daemon threads created on first use.
+	 * @return The shared facade.
+	 */
+	public static synchronized PeisJavaAsync shared() {
+		if (shared == null) {
+			final ExecutorService io = CallbackDispatcher.newDaemonExecutor("srnp-io-", SHARED_THREADS);
+			shared = new PeisJavaAsync(io);
+		}
+		return shared;
+	}
+
+	/**
+	 * @return The executor running the calls of this facade.
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	private static PeisTuple detach(PeisTuple tuple) {
+		if (tuple == null) {
+			return null;
+		}
+		try {
+			return tuple.copy();
+		} finally {
+			PeisJavaMT.peisjava_freeTuple(tuple);
+		}
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_getTuple(int, String)}.
+	 * @param owner The owner of the tuple.
+	 * @param key The key of the tuple.
+	 * @return A future completed with a copy of the tuple, or {@code null} if not found.
+	 */
+	public CompletableFuture<PeisTuple> getTuple(final int owner, final String key) {
+		return CompletableFuture.supplyAsync(() -> detach(PeisJavaMT.peisjava_getTuple(owner, key)), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_getByteTuple(int, String)}.
+	 * @param owner The owner of the tuple.
+	 * @param key The key of the tuple.
+	 * @return A future completed with the data of the tuple, or {@code null} if not found.
+	 */
+	public CompletableFuture<byte[]> getByteTuple(final int owner, final String key) {
+		return CompletableFuture.supplyAsync(() -> PeisJavaMT.peisjava_getByteTuple(owner, key), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_getStringTuple(int, String)}.
+	 * @param owner The owner of the tuple.
+	 * @param key The key of the tuple.
+	 * @return A future completed with the value of the tuple, or {@code null} if not found.
+	 */
+	public CompletableFuture<String> getStringTuple(final int owner, final String key) {
+		return CompletableFuture.supplyAsync(() -> PeisJavaMT.peisjava_getStringTuple(owner, key), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_getTupleIndirectly(int, String)}.
+	 * @param metaOwner The owner of the meta tuple.
+	 * @param metaKey The key of the meta tuple.
+	 * @return A future completed with a copy of the referenced tuple, or {@code null} if not found.
+	 */
+	public CompletableFuture<PeisTuple> getTupleIndirectly(final int metaOwner, final String metaKey) {
+		return CompletableFuture.supplyAsync(() -> detach(PeisJavaMT.peisjava_getTupleIndirectly(metaOwner, metaKey)), executor);
+	}
+
+	/**
+	 * Get the data of the tuple referenced by a meta tuple asynchronously.
+	 * @param metaOwner The owner of the meta tuple.
+	 * @param metaKey The key of the meta tuple.
+	 * @return A future completed with the data of the referenced tuple, or {@code null} if not found.
+	 */
+	public CompletableFuture<byte[]> getByteTupleIndirectly(final int metaOwner, final String metaKey) {
+		return CompletableFuture.supplyAsync(() -> {
+			final PeisTuple tuple = PeisJavaMT.peisjava_getTupleIndirectly(metaOwner, metaKey);
+			if (tuple == null) {
+				return null;
+			}
+			try {
+				return tuple.getByteData();
+			} finally {
+				PeisJavaMT.peisjava_freeTuple(tuple);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Get the value of the String tuple referenced by a meta tuple asynchronously.
+	 * @param metaOwner The owner of the meta tuple.
+	 * @param metaKey The key of the meta tuple.
+	 * @return A future completed with the value of the referenced tuple, or {@code null} if not found.
+	 */
+	public CompletableFuture<String> getStringTupleIndirectly(final int metaOwner, final String metaKey) {
+		return CompletableFuture.supplyAsync(() -> {
+			final PeisTuple tuple = PeisJavaMT.peisjava_getTupleIndirectly(metaOwner, metaKey);
+			if (tuple == null) {
+				return null;
+			}
+			try {
+				return tuple.getStringData();
+			} finally {
+				PeisJavaMT.peisjava_freeTuple(tuple);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Wait for a tuple written after the given time, e.g., the first value of a tuple that
+	 * does not exist yet, or the next value after one already read.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param newerThanMicros The write time stamp the tuple must be newer than, in microseconds
+	 * since the epoch (see {@link PeisTuple#getTsWriteMicros()}); -1 to accept any tuple.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of {@code timeout}.
+	 * @return A future completed with a copy of the tuple, or {@code null} if the timeout elapsed first.
+	 */
+	public CompletableFuture<PeisTuple> awaitTuple(final int owner, final String key, final long newerThanMicros, final long timeout, final TimeUnit unit) {
+		return PeisJavaMT.awaitTupleAsync(owner, key, newerThanMicros, executor).completeOnTimeout(null, timeout, unit);
+	}
+
+	/**
+	 * Wait for a tuple to exist and get its data.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of {@code timeout}.
+	 * @return A future completed with the data of the tuple, or {@code null} if the timeout elapsed first.
+	 */
+	public CompletableFuture<byte[]> awaitByteTuple(final int owner, final String key, final long timeout, final TimeUnit unit) {
+		return awaitTuple(owner, key, -1L, timeout, unit).thenApply(t -> t == null ? null : t.getByteData());
+	}
+
+	/**
+	 * Wait for a String tuple to exist and get its value.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of {@code timeout}.
+	 * @return A future completed with the value of the tuple, or {@code null} if the timeout elapsed first.
+	 */
+	public CompletableFuture<String> awaitStringTuple(final int owner, final String key, final long timeout, final TimeUnit unit) {
+		return awaitTuple(owner, key, -1L, timeout, unit).thenApply(t -> t == null ? null : t.getStringData());
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setTuple(String, byte[], String)}.
+	 * @param key The key of the tuple to set.
+	 * @param value The data to write into the tuple.
+	 * @param mimetype The mimetype of the tuple.
+	 * @return A future completed once the tuple is set.
+	 */
+	public CompletableFuture<Void> setTuple(final String key, final byte[] value, final String mimetype) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setTuple(key, value, mimetype), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setStringTuple(String, String)}.
+	 * @param key The key of the tuple to set.
+	 * @param value The value to set.
+	 * @return A future completed once the tuple is set.
+	 */
+	public CompletableFuture<Void> setStringTuple(final String key, final String value) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setStringTuple(key, value), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setTuples(TupleBatch)}.  The batch must not be
+	 * modified until the future completes.
+	 * @param batch The tuples to set.
+	 * @return A future completed once the tuples are set.
+	 */
+	public CompletableFuture<Void> setTuples(final TupleBatch batch) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setTuples(batch), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setRemoteTuple(int, String, byte[], String)}.
+	 * @param owner The owner of the tuple to set.
+	 * @param key The key of the tuple to set.
+	 * @param value The data to write into the tuple.
+	 * @param mimetype The mimetype of the tuple.
+	 * @return A future completed once the tuple is set.
+	 */
+	public CompletableFuture<Void> setRemoteTuple(final int owner, final String key, final byte[] value, final String mimetype) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setRemoteTuple(owner, key, value, mimetype), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setRemoteStringTuple(int, String, String)}.
+	 * @param owner The owner of the tuple to set.
+	 * @param key The key of the tuple to set.
+	 * @param value The value to set.
+	 * @return A future completed once the tuple is set.
+	 */
+	public CompletableFuture<Void> setRemoteStringTuple(final int owner, final String key, final String value) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setRemoteStringTuple(owner, key, value), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setTupleIndirectly(int, String, byte[], String)}.
+	 * @param metaOwner The owner of the meta tuple.
+	 * @param metaKey The key of the meta tuple.
+	 * @param value The data to write into the referenced tuple.
+	 * @param mimetype The mimetype of the tuple.
+	 * @return A future completed once the tuple is set.
+	 */
+	public CompletableFuture<Void> setTupleIndirectly(final int metaOwner, final String metaKey, final byte[] value, final String mimetype) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setTupleIndirectly(metaOwner, metaKey, value, mimetype), executor);
+	}
+
+	/**
+	 * Asynchronous {@link PeisJavaMT#peisjava_setStringTupleIndirectly(int, String, String)}.
+	 * @param metaOwner The owner of the meta tuple.
+	 * @param metaKey The key of the meta tuple.
+	 * @param value The value to write into the referenced tuple.
+	 * @return A future completed once the tuple is set.
+	 */
+	public CompletableFuture<Void> setStringTupleIndirectly(final int metaOwner, final String metaKey, final String value) {
+		return CompletableFuture.runAsync(() -> PeisJavaMT.peisjava_setStringTupleIndirectly(metaOwner, metaKey, value), executor);
+	}
+}
@@ -0,0 +1,112 @@
+package srnp;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+import com.sun.jna.FunctionMapper;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+
+/**
+ * Selects the binding backend behind {@link PeisJavaMT#INSTANCE}.  The JNA
+ * binding is loaded lazily, so the in-process {@link PeisJavaLocalKernel} runs
+ * without the native library; it is the fallback of the FFM backend.  Each backend is
+ * wrapped for {@link PeisJavaMetrics}.
+ */
+final class PeisJavaBackends {
+
+	static final String LIBRARY = "srnp_wrapper";
+
+	static final String PROPERTY = "srnp.backend";
+
+	private static final String FFM_CLASS = "srnp.PeisJavaFfm";
+
+	/**
+	 * The peiskmt_xxxRef variants, which are bound to the same native functions as peiskmt_xxx.
+	 */
+	private static final HashMap<String, String> REF_FUNCTIONS = new HashMap<String, String>();
+
+	static {
+		REF_FUNCTIONS.put("peiskmt_getTupleRef", "peiskmt_getTuple");
+		REF_FUNCTIONS.put("peiskmt_getTupleIndirectlyRef", "peiskmt_getTupleIndirectly");
+		REF_FUNCTIONS.put("peiskmt_deAllocateTupleRef", "peiskmt_deAllocateTuple");
+		REF_FUNCTIONS.put("peiskmt_registerTupleRefCallback", "peiskmt_registerTupleCallback");
+	}
+
+	private static PeisJavaInterface jna = null;
+
+	private static final HashMap<String, PeisJavaInterface> backends = new HashMap<String, PeisJavaInterface>();
+
+	private PeisJavaBackends() {
+	}
+
+	static synchronized PeisJavaInterface jna() {
+		if(jna == null) {
+			final HashMap<String, Object> options = new HashMap<String, Object>();
+			options.put(Library.OPTION_FUNCTION_MAPPER, new FunctionMapper() {
+				@Override
+				public String getFunctionName(NativeLibrary library, Method method) {
+					final String name = REF_FUNCTIONS.get(method.getName());
+					return name == null ? method.getName() : name;
+				}
+			});
+			jna = (PeisJavaInterface)Native.loadLibrary(LIBRARY, PeisJavaInterface.class, options);
+		}
+		return jna;
+	}
+
+	/**
+	 * Get the backend named by the {@code srnp.backend} system property.
+	 * @return The backend, or {@code null} if the native library could not be loaded
+	 * (so that another backend can still be chosen at initialization).
+	 */
+	static PeisJavaInterface initial() {
+		try {
+			return select(System.getProperty(PROPERTY));
+		} catch (UnsatisfiedLinkError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the backend with the given name, creating it on first use.
+	 * @param name One of {@link PeisJavaMT#BACKEND_JNA}, {@link PeisJavaMT#BACKEND_FFM}
+	 * or {@link PeisJavaMT#BACKEND_LOCAL}.
+	 * @return The selected backend.
+	 */
+	static synchronized PeisJavaInterface select(String name) {
+		if(name == null) {
+			name = PeisJavaMT.BACKEND_JNA;
+		}
+		PeisJavaInterface backend = backends.get(name);
+		if(backend == null) {
+			backend = PeisJavaMetrics.wrap(create(name));
+			backends.put(name, backend);
+		}
+		return backend;
+	}
+
+	private static PeisJavaInterface create(String name) {
+		if(PeisJavaMT.BACKEND_LOCAL.equals(name)) {
+			return new PeisJavaLocalKernel();
+		}
+		final PeisJavaInterface jna = jna();
+		if(PeisJavaMT.BACKEND_JNA.equals(name)) {
+			return jna;
+		}
+		if(PeisJavaMT.BACKEND_FFM.equals(name)) {
+			try {
+				return (PeisJavaInterface)Class.forName(FFM_CLASS)
+						.getDeclaredConstructor(String.class, PeisJavaInterface.class)
+						.newInstance(LIBRARY, jna);
+			} catch (ReflectiveOperationException e) {
+				System.err.println("FFM backend unavailable (" + e + "), using JNA");
+			} catch (LinkageError e) {
+				System.err.println("FFM backend unavailable (" + e + "), using JNA");
+			}
+			return jna;
+		}
+		throw new IllegalArgumentException("Unknown srnp backend: " + name);
+	}
+}
@@ -41,6 +41,14 @@ public interface PeisJavaInterface extends Library {
 		void callback(PeisTuple tuple, Pointer userdata);
 	}
 		
+	/**
+	 * Callback hook receiving the address of the changed tuple rather than a {@link PeisTuple},
+	 * so that it can be read through a {@link PeisTupleView} without allocation.
+	 */
+	public interface PeisTupleRefCallback extends Callback {
+		void callback(Pointer tuple, Pointer userdata);
+	}
+	
 	/**
 	 * 
 	 * @author Chittaranjan
@@ -270,4 +278,52 @@ public interface PeisJavaInterface extends Library {
 
 	public int peiskmt_setTupleIndirectly(int metaOwner, String metaKey,
 			int length, Memory m, String mimetype, int enc);
+	
+	/**
+	 * Set several tuples in local tuplespace in one call, propagating them to all subscribers.
+	 * @param count The number of tuples in the buffer.
+	 * @param buffer The tuples, encoded as described in {@link TupleBatch}.
+	 * @param len The length of the buffer.
+	 * @return Zero on success, error code otherwise.
+	 */
+	public int peiskmt_setTuples(int count, Pointer buffer, int len);
+	
+	/*
+	 * Variants of the above passing tuples by address (bound to the same native functions).
+	 */
+	
+	/**
+	 * Same as {@link #peiskmt_getTuple(int, String, int)}, returning the address of the tuple.
+	 * @param owner The owner of the tuple.
+	 * @param key The keyname of the tuple.
+	 * @param flags Flags modifying the behaviour of getTuple.
+	 * @return Pointer to the tuple if successful {@code null} otherwise.
+	 */
+	public Pointer peiskmt_getTupleRef(int owner, String key, int flags);
+	
+	/**
+	 * Same as {@link #peiskmt_getTupleIndirectly(int, String, int)}, returning the address of the tuple.
+	 * @param metaOwner The owner of the meta tuple. 
+	 * @param metaKey The key of the meta tuple.
+	 * @param flags Flags modifying the behaviour of internal getTuple call.
+	 * @return Pointer to the referenced tuple if found, {@code null} otherwise.
+	 */
+	public Pointer peiskmt_getTupleIndirectlyRef(int metaOwner, String metaKey, int flags);
+	
+	/**
+	 * Same as {@link #peiskmt_deAllocateTuple(PeisTuple)}, given the address of the tuple.
+	 * @param tuple Pointer to the tuple to free.
+	 */
+	public void peiskmt_deAllocateTupleRef(Pointer tuple);
+	
+	/**
+	 * Same as {@link #peiskmt_registerTupleCallback(int, String, Pointer, PeisTupleCallback)},
+	 * for a callback receiving the address of the tuple.
+	 * @param owner The owner of the tuple.
+	 * @param key The key of the tuple.
+	 * @param userdata The user data passed to the callback.
+	 * @param fn The callback.
+	 * @return Callback handle if successful.
+	 */
+	public double peiskmt_registerTupleRefCallback(int owner, String key, Pointer userdata, PeisTupleRefCallback fn);
 }
@@ -0,0 +1,521 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * A pure-Java, in-process implementation of {@link PeisJavaInterface}.  Tuples live in a
+ * concurrent in-memory store keyed by (owner, key) and are exchanged without crossing into
+ * native code, so components sharing one JVM can talk at heap speed, and programs can be
+ * run (e.g., in load tests or CI) without the srnp_wrapper library or a master node.
+ * <br><br>
+ * Install it with {@link PeisJavaMT#peisjava_initialize(String[], String[], String)} and
+ * {@link PeisJavaMT#BACKEND_LOCAL} (or {@code -Dsrnp.backend=local}).  The peis id is taken
+ * from the {@code --owner-id} command line option.  Tuple callbacks are invoked synchronously
+ * on the thread that sets the tuple.  Meta tuples hold the value {@code (META owner key)}.
+ */
+public class PeisJavaLocalKernel implements PeisJavaInterface {
+
+	/**
+	 * Owner used as wildcard in subscriptions, callbacks and reads.
+	 */
+	public static final int ANY_OWNER = -1;
+
+	private static final String META_PREFIX = "(META ";
+
+	/**
+	 * One version of a tuple.  Never modified once stored; the native copies of key and data
+	 * are shared by every {@link PeisTuple} handed out for this version.
+	 */
+	private static final class Entry {
+		final int owner;
+		final String key;
+		final Memory keyMemory;
+		final Memory data;
+		final int datalen;
+		final String mimetype;
+		final int tsSec;
+		final int tsUsec;
+		/**
+		 * Struct handed out by address (peiskmt_xxxRef), written on first use.
+		 */
+		private volatile PeisTuple struct = null;
+
+		Entry(int owner, String key, Memory keyMemory, Memory data, int datalen, String mimetype) {
+			this.owner = owner;
+			this.key = key;
+			this.keyMemory = keyMemory;
+			this.data = data;
+			this.datalen = datalen;
+			this.mimetype = mimetype;
+			final long ms = System.currentTimeMillis();
+			this.tsSec = (int) (ms / 1000);
+			this.tsUsec = (int) (ms % 1000) * 1000;
+		}
+
+		PeisTuple toTuple() {
+			return PeisTuple.create(owner, keyMemory, data, datalen, tsSec, tsUsec);
+		}
+
+		Pointer ref() {
+			PeisTuple s = struct;
+			if(s == null) {
+				s = toTuple();
+				struct = s;
+			}
+			return s.getPointer();
+		}
+
+		String getString() {
+			if(data == null || datalen <= 0) {
+				return null;
+			}
+			int len = datalen;
+			if(data.getByte(len - 1) == 0) {
+				len--;
+			}
+			return new String(data.getByteArray(0, len), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static final class Registration {
+		final double handle;
+		final int owner;
+		final String key;
+		final Pointer userdata;
+		final PeisTupleCallback fn;
+		final PeisTupleRefCallback refFn;
+
+		Registration(double handle, int owner, String key, Pointer userdata, PeisTupleCallback fn, PeisTupleRefCallback refFn) {
+			this.handle = handle;
+			this.owner = owner;
+			this.key = key;
+			this.userdata = userdata;
+			this.fn = fn;
+			this.refFn = refFn;
+		}
+
+		boolean matches(Entry e) {
+			return (owner == ANY_OWNER || owner == e.owner) && (key == null || key.equals(e.key));
+		}
+	}
+
+	private final class Subscription implements PeisSubscriberHandle {
+		final int id;
+
+		Subscription(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public int callback() {
+			return id;
+		}
+	}
+
+	private final ConcurrentHashMap<TupleKey, Entry> tuples = new ConcurrentHashMap<TupleKey, Entry>();
+
+	/**
+	 * Tuple callbacks indexed by key (owner is matched per registration).
+	 */
+	private final ConcurrentHashMap<String, CopyOnWriteArrayList<Registration>> callbacks = new ConcurrentHashMap<String, CopyOnWriteArrayList<Registration>>();
+
+	/**
+	 * Tuple callbacks registered with a {@code null} (wildcard) key.
+	 */
+	private final CopyOnWriteArrayList<Registration> anyKeyCallbacks = new CopyOnWriteArrayList<Registration>();
+
+	private final ConcurrentHashMap<Double, Registration> callbacksByHandle = new ConcurrentHashMap<Double, Registration>();
+
+	private final CopyOnWriteArrayList<Registration> metaCallbacks = new CopyOnWriteArrayList<Registration>();
+
+	private final ConcurrentHashMap<Integer, Subscription> subscriptions = new ConcurrentHashMap<Integer, Subscription>();
+
+	private final AtomicLong nextHandle = new AtomicLong(1);
+
+	private volatile int peisid;
+
+	private volatile boolean running = false;
+
+	/**
+	 * Create an empty tuple space.  The peis id defaults to a value derived from the process
+	 * id until {@link #peiskmt_initialize(IntByReference, String[], String[])} is called.
+	 */
+	public PeisJavaLocalKernel() {
+		peisid = (int) (ProcessHandle.current().pid() & 0xffff) + 1;
+	}
+
+	/*
+	 * Store
+	 */
+
+	private static Memory toMemory(String s) {
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		final Memory m = new Memory(bytes.length + 1);
+		m.write(0, bytes, 0, bytes.length);
+		m.setByte(bytes.length, (byte) 0);
+		return m;
+	}
+
+	private static Memory toMemory(Pointer data, int len) {
+		if(data == null || len <= 0) {
+			return null;
+		}
+		final Memory m = new Memory(len);
+		m.getByteBuffer(0, len).put(data.getByteBuffer(0, len));
+		return m;
+	}
+
+	private Entry lookup(int owner, String key) {
+		if(owner != ANY_OWNER) {
+			return tuples.get(new TupleKey(owner, key));
+		}
+		for(Entry e : tuples.values()) {
+			if(e.key.equals(key)) {
+				return e;
+			}
+		}
+		return null;
+	}
+
+	private void store(int owner, String key, Memory data, int datalen, String mimetype) {
+		final TupleKey k = new TupleKey(owner, key);
+		final Entry old = tuples.get(k);
+		final Memory keyMemory = old != null ? old.keyMemory : toMemory(key);
+		final Entry e = new Entry(owner, key, keyMemory, data, datalen, mimetype);
+		tuples.put(k, e);
+		fire(e);
+	}
+
+	private void storeString(int owner, String key, String value) {
+		final Memory m = toMemory(value);
+		store(owner, key, m, (int) m.getSize(), "text/plain");
+	}
+
+	private void fire(Entry e) {
+		final CopyOnWriteArrayList<Registration> regs = callbacks.get(e.key);
+		PeisTuple tuple = null;
+		if(regs != null) {
+			for(Registration r : regs) {
+				if(r.matches(e)) {
+					if(tuple == null && r.fn != null) {
+						tuple = e.toTuple();
+					}
+					invoke(r, e, tuple);
+				}
+			}
+		}
+		for(Registration r : anyKeyCallbacks) {
+			if(r.matches(e)) {
+				if(tuple == null && r.fn != null) {
+					tuple = e.toTuple();
+				}
+				invoke(r, e, tuple);
+			}
+		}
+		for(Registration r : metaCallbacks) {
+			final TupleKey target = resolveMeta(r.owner, r.key);
+			if((target != null && target.owner == e.owner && Objects.equals(target.key, e.key))
+					|| (r.owner == e.owner && Objects.equals(r.key, e.key))) {
+				final Entry real = target == null ? null : tuples.get(target);
+				if(real != null) {
+					invoke(r, real, real == e && tuple != null ? tuple : real.toTuple());
+				}
+			}
+		}
+	}
+
+	private static void invoke(Registration r, Entry e, PeisTuple tuple) {
+		try {
+			if(r.refFn != null) {
+				r.refFn.callback(e.ref(), r.userdata);
+			} else {
+				r.fn.callback(tuple, r.userdata);
+			}
+		} catch (RuntimeException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Resolve the tuple referenced by a meta tuple.
+	 * @return The referenced (owner, key), or {@code null} if the meta tuple is undefined.
+	 */
+	private TupleKey resolveMeta(int metaOwner, String metaKey) {
+		final Entry meta = lookup(metaOwner, metaKey);
+		if(meta == null) {
+			return null;
+		}
+		final String value = meta.getString();
+		if(value == null || !value.startsWith(META_PREFIX) || !value.endsWith(")")) {
+			return null;
+		}
+		final String[] parts = value.substring(META_PREFIX.length(), value.length() - 1).trim().split("\\s+", 2);
+		if(parts.length != 2) {
+			return null;
+		}
+		try {
+			return new TupleKey(Integer.parseInt(parts[0]), parts[1]);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the mimetype a tuple was last set with.
+	 * @param owner The owner of the tuple.
+	 * @param key The key of the tuple.
+	 * @return The mimetype, or {@code null} if the tuple does not exist.
+	 */
+	public String getMimetype(int owner, String key) {
+		final Entry e = lookup(owner, key);
+		return e == null ? null : e.mimetype;
+	}
+
+	/**
+	 * Get the number of tuples in the store.
+	 * @return The number of (owner, key) pairs that have a value.
+	 */
+	public int size() {
+		return tuples.size();
+	}
+
+	/*
+	 * PeisJavaInterface
+	 */
+
+	@Override
+	public double peiskmt_registerTupleCallback(int owner, String key, Pointer userdata, PeisTupleCallback fn) {
+		return register(new Registration(nextHandle.getAndIncrement(), owner, key, userdata, fn, null));
+	}
+
+	@Override
+	public double peiskmt_registerTupleRefCallback(int owner, String key, Pointer userdata, PeisTupleRefCallback fn) {
+		return register(new Registration(nextHandle.getAndIncrement(), owner, key, userdata, null, fn));
+	}
+
+	private double register(Registration r) {
+		final String key = r.key;
+		if(key == null) {
+			anyKeyCallbacks.add(r);
+			callbacksByHandle.put(r.handle, r);
+			return r.handle;
+		}
+		CopyOnWriteArrayList<Registration> regs = callbacks.get(key);
+		if(regs == null) {
+			final CopyOnWriteArrayList<Registration> fresh = new CopyOnWriteArrayList<Registration>();
+			regs = callbacks.putIfAbsent(key, fresh);
+			if(regs == null) {
+				regs = fresh;
+			}
+		}
+		regs.add(r);
+		callbacksByHandle.put(r.handle, r);
+		return r.handle;
+	}
+
+	@Override
+	public int peiskmt_unregisterTupleCallback(double tupleCallback) {
+		final Registration r = callbacksByHandle.remove(tupleCallback);
+		if(r == null) {
+			return -1;
+		}
+		if(r.key == null) {
+			anyKeyCallbacks.remove(r);
+			return 0;
+		}
+		final CopyOnWriteArrayList<Registration> regs = callbacks.get(r.key);
+		if(regs != null) {
+			regs.remove(r);
+		}
+		return 0;
+	}
+
+	@Override
+	public void peiskmt_initialize(IntByReference argc, String[] args, String[] env) {
+		if(args != null) {
+			for(int i = 0; i < args.length - 1; i++) {
+				if("--owner-id".equals(args[i]) || "--peis-id".equals(args[i])) {
+					peisid = Integer.parseInt(args[i + 1]);
+				}
+			}
+		}
+		running = true;
+	}
+
+	@Override
+	public void peiskmt_printTuple(PeisTuple tuple) {
+		System.out.println("<" + tuple.getOwner() + "," + tuple.getKey() + "> (" + tuple.datalen + " bytes)");
+	}
+
+	@Override
+	public void peiskmt_setStringTuple(String key, String value) {
+		storeString(peisid, key, value);
+	}
+
+	@Override
+	public boolean peiskmt_isRunning() {
+		return running;
+	}
+
+	@Override
+	public PeisTuple peiskmt_getTuple(int owner, String key, int flags) {
+		final Entry e = lookup(owner, key);
+		return e == null ? null : e.toTuple();
+	}
+
+	@Override
+	public void peiskmt_deAllocateTuple(PeisTuple tuple) {
+		//Key and data are owned by the store and reclaimed by the GC
+	}
+
+	@Override
+	public Pointer peiskmt_getTupleRef(int owner, String key, int flags) {
+		final Entry e = lookup(owner, key);
+		return e == null ? null : e.ref();
+	}
+
+	@Override
+	public Pointer peiskmt_getTupleIndirectlyRef(int metaOwner, String metaKey, int flags) {
+		final TupleKey target = resolveMeta(metaOwner, metaKey);
+		return target == null ? null : peiskmt_getTupleRef(target.owner, target.key, flags);
+	}
+
+	@Override
+	public void peiskmt_deAllocateTupleRef(Pointer tuple) {
+		//Structs are owned by the store
+	}
+
+	@Override
+	public PeisSubscriberHandle peiskmt_subscribe(int owner, String key) {
+		final Subscription s = new Subscription((int) nextHandle.getAndIncrement());
+		subscriptions.put(s.id, s);
+		return s;
+	}
+
+	@Override
+	public boolean peiskmt_unsubscribe(PeisSubscriberHandle handle) {
+		//Mirrors the native convention: false (zero) on success
+		return handle == null || subscriptions.remove(handle.callback()) == null;
+	}
+
+	@Override
+	public void peiskmt_subscribeIndirectly(int metaOwner, String metaKey) {
+		//Every tuple is visible locally
+	}
+
+	@Override
+	public PeisTuple peiskmt_getTupleIndirectly(int metaOwner, String metaKey, int flags) {
+		final TupleKey target = resolveMeta(metaOwner, metaKey);
+		return target == null ? null : peiskmt_getTuple(target.owner, target.key, flags);
+	}
+
+	@Override
+	public int peiskmt_setStringTupleIndirectly(int metaOwner, String metaKey, String value) {
+		final TupleKey target = resolveMeta(metaOwner, metaKey);
+		if(target == null) {
+			return -1;
+		}
+		storeString(target.owner, target.key, value);
+		return 0;
+	}
+
+	@Override
+	public void peiskmt_declareMetaTuple(int metaOwner, String metaKey) {
+		storeString(metaOwner, metaKey, "nil");
+	}
+
+	@Override
+	public void peiskmt_setMetaTuple(int metaOwner, String metaKey, int realOwner, String realKey) {
+		storeString(metaOwner, metaKey, META_PREFIX + realOwner + " " + realKey + ")");
+	}
+
+	@Override
+	public int peiskmt_peisid() {
+		return peisid;
+	}
+
+	@Override
+	public void peiskmt_shutdown() {
+		running = false;
+	}
+
+	@Override
+	public void peiskmt_setTuple(String key, int len, Pointer data, String mimetype, int encoding) {
+		store(peisid, key, toMemory(data, len), len, mimetype);
+	}
+
+	@Override
+	public void peiskmt_setRemoteTuple(int owner, String key, int len, Pointer data, String mimetype, int encoding) {
+		store(owner, key, toMemory(data, len), len, mimetype);
+	}
+
+	@Override
+	public void peiskmt_setRemoteStringTuple(int owner, String key, String value) {
+		storeString(owner, key, value);
+	}
+
+	@Override
+	public void peiskmt_registerMetaTupleCallback(int metaTupleOwner, String metaTupleKey, Pointer userdata, PeisTupleCallback fn) {
+		metaCallbacks.add(new Registration(nextHandle.getAndIncrement(), metaTupleOwner, metaTupleKey, userdata, fn, null));
+	}
+
+	@Override
+	public void peiskmt_unregisterMetaTupleCallback(int metaTupleOwner, String metaTupleKey) {
+		for(Registration r : metaCallbacks) {
+			if(r.owner == metaTupleOwner && Objects.equals(r.key, metaTupleKey)) {
+				metaCallbacks.remove(r);
+			}
+		}
+	}
+
+	@Override
+	public int peiskmt_setTupleIndirectly(int metaOwner, String metaKey, int length, Memory m, String mimetype, int enc) {
+		final TupleKey target = resolveMeta(metaOwner, metaKey);
+		if(target == null) {
+			return -1;
+		}
+		store(target.owner, target.key, toMemory(m, length), length, mimetype);
+		return 0;
+	}
+
+	@Override
+	public int peiskmt_setTuples(int count, Pointer buffer, int len) {
+		final ByteBuffer in = buffer.getByteBuffer(0, len).order(ByteOrder.nativeOrder());
+		for(int i = 0; i < count; i++) {
+			final String key = readString(in);
+			final String mimetype = readString(in);
+			final int datalen = in.getInt();
+			Memory data = null;
+			if(datalen > 0) {
+				data = new Memory(datalen);
+				final ByteBuffer slice = in.slice();
+				slice.limit(datalen);
+				data.getByteBuffer(0, datalen).put(slice);
+				in.position(in.position() + datalen);
+			}
+			store(peisid, key, data, datalen, mimetype);
+		}
+		return 0;
+	}
+
+	private static String readString(ByteBuffer in) {
+		final int len = in.getInt();
+		if(len == 0) {
+			return null;
+		}
+		final byte[] b = new byte[len - 1];
+		in.get(b);
+		in.get();
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -23,8 +23,18 @@ package srnp;
 import srnp.PeisJavaInterface.PeisSubscriberHandle;
 import srnp.PeisJavaInterface.PeisTupleCallback;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 import com.sun.jna.Memory;
-import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 
 /**
@@ -64,18 +74,87 @@ public class PeisJavaMT {
 	/**
 	 * Reference to PEISKernel library instance.  Use if you need to access the
 	 * peiskmt_xxx() calls directly (otherwise just invoke the static methods
-	 * of PEISJava). 
+	 * of PEISJava).  {@code null} until initialization if the native library
+	 * is not available.
 	 */
-	public static PeisJavaInterface INSTANCE = (PeisJavaInterface)Native.loadLibrary("srnp_wrapper",PeisJavaInterface.class);
+	public static PeisJavaInterface INSTANCE = PeisJavaBackends.initial();
+	
+	/**
+	 * Name of the default binding backend, which calls the srnp_wrapper library through JNA.
+	 */
+	public static final String BACKEND_JNA = "jna";
+	
+	/**
+	 * Name of the binding backend which calls the hot entry points of the srnp_wrapper
+	 * library through {@code java.lang.foreign} downcall handles (JDK 22 and later).
+	 * Falls back to {@link #BACKEND_JNA} if unavailable.
+	 */
+	public static final String BACKEND_FFM = "ffm";
+	
+	/**
+	 * Name of the in-process, pure-Java tuple space ({@link PeisJavaLocalKernel}), which
+	 * needs neither the native library nor a master node.
+	 */
+	public static final String BACKEND_LOCAL = "local";
 	
 	
 	static private String[] PEISJAVA_DEFAULT_ARGUMENTS = new String[]{}; 
 	
+	private static volatile TupleCache tupleCache = null;
+	
+	private static volatile boolean batchSupported = true;
+	
+	/**
+	 * Serializes subscription and meta tuple changes per (owner, key).  Reads and writes of
+	 * tuple values need no lock, as the multi-threaded kernel (peiskmt_xxx) is thread-safe.
+	 */
+	private static final StripedLocks locks = new StripedLocks(64);
+	
+	/**
+	 * The (owner, key) of the subscriptions made by {@link #peisjava_subscribe(int, String)},
+	 * so that unsubscribing takes the same stripe.
+	 */
+	private static final ConcurrentHashMap<PeisSubscriberHandle, TupleKey> subscriptionKeys = new ConcurrentHashMap<PeisSubscriberHandle, TupleKey>();
+	
+	private static final TupleWaiters waiters = new TupleWaiters();
+	
+	private static final KeyPatternDispatcher patterns = new KeyPatternDispatcher();
+	
+	private static volatile TupleSnapshot snapshot = null;
+	
+	/**
+	 * System property naming the snapshot file to enable at initialization (see
+	 * {@link #peisjava_enableSnapshot(Path, long, TimeUnit)}).
+	 */
+	public static final String SNAPSHOT_PROPERTY = "srnp.snapshot";
+	
+	/**
+	 * System property giving the interval between snapshots in milliseconds (default 5000).
+	 */
+	public static final String SNAPSHOT_INTERVAL_PROPERTY = "srnp.snapshotInterval";
+	
 	
 	/**
-	 * Initializes peiskernel using any appropriate command line options.
+	 * Initializes peiskernel using any appropriate command line options.  The binding backend
+	 * is taken from the {@code srnp.backend} system property if set, otherwise the current
+	 * {@link #INSTANCE} ({@link #BACKEND_JNA} by default) is used.
 	 */
 	public static void peisjava_initialize(String[] args, String[] env) {
+		peisjava_initialize(args, env, System.getProperty(PeisJavaBackends.PROPERTY));
+	}
+	
+	/**
+	 * Initializes peiskernel using any appropriate command line options and the given binding backend.
+	 * @param args The command line options.
+	 * @param env The environment.
+	 * @param backend One of {@link #BACKEND_JNA}, {@link #BACKEND_FFM} or {@link #BACKEND_LOCAL},
+	 * or {@code null} to keep the current {@link #INSTANCE}.
+	 */
+	public static void peisjava_initialize(String[] args, String[] env, String backend) {
+		
+		if(backend != null || INSTANCE == null) {
+			INSTANCE = PeisJavaBackends.select(backend);
+		}
 		
 		if(args == null) {
 			args = PEISJAVA_DEFAULT_ARGUMENTS.clone();
@@ -83,23 +162,110 @@ public class PeisJavaMT {
 		
 		INSTANCE.peiskmt_initialize(new IntByReference(args.length), args, env);
 		INSTANCE.peiskmt_setStringTuple("kernel.PeisJava.version", "0.1.2.3");
+		
+		final String snapshotFile = System.getProperty(SNAPSHOT_PROPERTY);
+		if(snapshotFile != null && snapshot == null) {
+			peisjava_enableSnapshot(Paths.get(snapshotFile), Long.getLong(SNAPSHOT_INTERVAL_PROPERTY, 5000L), TimeUnit.MILLISECONDS);
+		}
 	}
 	/**
 	 * Stops the running peis kernel.
 	 */
 	public static void peisjava_shutdown() {		
+		peisjava_disableSnapshot(true);
 		//Release the reference to the thread
 		INSTANCE.peiskmt_shutdown();
 	}
 	
 	/**
 	 * Get a tuple from the local tuplespace. The owner of the tuple must be the caller.  Note: this is a non-blocking read, and the same value can be read more than once.
+	 * If a snapshot is enabled and the kernel has no value yet, the tuple is read from the snapshot.
 	 * @param owner The owner of the tuple.
 	 * @param key The fully qualified key of the tuple to get.
 	 * @return The tuple matching the given key.
 	 */
 	public static PeisTuple peisjava_getTuple(int owner, String key) {
-		return INSTANCE.peiskmt_getTuple(owner, key, 0);
+		final TupleCache cache = tupleCache;
+		final PeisTuple tup = cache != null && owner >= 0 ? cache.getTuple(owner, key) : INSTANCE.peiskmt_getTuple(owner, key, 0);
+		if (tup == null) {
+			final TupleSnapshot s = snapshot;
+			if (s != null)
+				return s.getTuple(owner, key);
+		}
+		return tup;
+	}
+	
+	/**
+	 * Get a tuple from the tuplespace, owned by a handle which frees it when closed.
+	 * @param owner The owner of the tuple.
+	 * @param key The fully qualified key of the tuple to get.
+	 * @return A handle to the tuple, {@code null} if the tuple was not found.
+	 */
+	public static TupleHandle peisjava_getTupleHandle(int owner, String key) {
+		final PeisTuple tup = peisjava_getTuple(owner, key);
+		return tup == null ? null : new TupleHandle(tup);
+	}
+	
+	/**
+	 * Wait until a tuple written after the given time is available, e.g., the next value
+	 * after one already read.  Returns immediately if the current tuple is already newer.
+	 * All threads waiting on the same tuple share one callback registration (and one
+	 * subscription, for remote tuples), and are woken by the update itself.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param newerThanMicros The write time stamp the tuple must be newer than, in microseconds
+	 * since the epoch (see {@link PeisTuple#getTsWriteMicros()}); -1 to accept any tuple.
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of {@code timeout}.
+	 * @return A detached copy of the tuple (which need not be freed), or {@code null} if the
+	 * timeout elapsed first.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public static PeisTuple peisjava_awaitTuple(int owner, String key, long newerThanMicros, long timeout, TimeUnit unit) throws InterruptedException {
+		return waiters.await(owner, key, newerThanMicros, unit.toNanos(timeout));
+	}
+	
+	/**
+	 * Asynchronous form of {@link #peisjava_awaitTuple(int, String, long, long, TimeUnit)},
+	 * used by {@link PeisJavaAsync}: no thread is blocked while waiting.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param newerThanMicros The write time stamp the tuple must be newer than; -1 to accept any tuple.
+	 * @param executor The executor completing the future.
+	 * @return A future completed with a detached copy of the tuple.
+	 */
+	static CompletableFuture<PeisTuple> awaitTupleAsync(int owner, String key, long newerThanMicros, Executor executor) {
+		return waiters.awaitAsync(owner, key, newerThanMicros, executor);
+	}
+	
+	/**
+	 * Wait until a tuple written after the given time is available.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param newerThanMicros The write time stamp the tuple must be newer than, in microseconds since the epoch.
+	 * @param timeoutMillis The maximum time to wait in milliseconds.
+	 * @return A detached copy of the tuple, or {@code null} if the timeout elapsed first.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 * @see #peisjava_awaitTuple(int, String, long, long, TimeUnit)
+	 */
+	public static PeisTuple peisjava_awaitTuple(int owner, String key, long newerThanMicros, long timeoutMillis) throws InterruptedException {
+		return peisjava_awaitTuple(owner, key, newerThanMicros, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Get a flyweight view of a tuple which reads its fields directly from the native struct,
+	 * without copying it into a {@link PeisTuple}.  The view is owned by the calling thread and
+	 * is reused by the next call to this method on the same thread, so it must not be kept or
+	 * shared.  Release the tuple with {@link #peisjava_freeTuple(PeisTupleView)}.
+	 * @param owner The owner of the tuple.
+	 * @param key The key of the tuple.
+	 * @return The view of the tuple if found, {@code null} otherwise.
+	 */
+	public static PeisTupleView peisjava_getTupleView(int owner, String key) {
+		final Pointer ref = INSTANCE.peiskmt_getTupleRef(owner, key, 0);
+		if (ref == null)
+			return null;
+		return PeisTupleView.local().wrap(ref);
 	}
 	
 	/**
@@ -110,11 +276,17 @@ public class PeisJavaMT {
 	 * @return A String containing the tuple data if the tuple was found, {@code null} otherwise.
 	 */
 	public static String peisjava_getStringTuple(int owner, String name) {
+		final TupleCache cache = tupleCache;
+		if (cache != null && owner >= 0)
+			return cache.getString(owner, name);
 		final PeisTuple tup = peisjava_getTuple(owner, name);
-		System.out.println("HERE");
-		if (tup != null && tup.getStringData() != null)
+		if (tup == null)
+			return null;
+		try {
 			return tup.getStringData();
-		return null;
+		} finally {
+			peisjava_freeTuple(tup);
+		}
 	}
 	
 	/**
@@ -134,11 +306,59 @@ public class PeisJavaMT {
 	 * @param flags Flags indicating whether call should be blocking and/or filter old values.
 	 * @return A byte array containing the tuple data if the tuple was found, {@code null} otherwise. 
 	 */
-	public static synchronized byte[] peisjava_getByteTuple(int owner, String name) {
-		PeisTuple tup = peisjava_getTuple(owner, name);
-		if (tup != null && tup.getByteData() != null)
+	public static byte[] peisjava_getByteTuple(int owner, String name) {
+		final TupleCache cache = tupleCache;
+		if (cache != null && owner >= 0)
+			return cache.getBytes(owner, name);
+		final PeisTuple tup = peisjava_getTuple(owner, name);
+		if (tup == null)
+			return null;
+		try {
 			return tup.getByteData();
-		return null;
+		} finally {
+			peisjava_freeTuple(tup);
+		}
+	}
+	
+	/**
+	 * Parse the data in a tuple in place, without copying it to the Java heap.  The reader is
+	 * given a read-only direct {@link java.nio.ByteBuffer} over the native data, which is valid
+	 * only while the reader runs; the tuple is freed as soon as the reader returns.  Data
+	 * compressed by the writer is the exception: the reader gets a heap buffer with the
+	 * inflated data (see {@link PeisTuple#getByteBuffer()}).
+	 * @param owner The owner of the tuple.
+	 * @param name The name of the tuple.
+	 * @param reader The parser of the tuple data.
+	 * @return The value returned by the reader, or {@code null} if the tuple was not found.
+	 */
+	public static <T> T peisjava_readByteTuple(int owner, String name, TupleDataReader<T> reader) {
+		final PeisTuple tup = peisjava_getTuple(owner, name);
+		if (tup == null)
+			return null;
+		try {
+			return reader.read(tup.getByteBuffer());
+		} finally {
+			peisjava_freeTuple(tup);
+		}
+	}
+	
+	/**
+	 * Get a tuple decoded with the {@link TupleCodec} of a type (see {@link TupleCodecs}).
+	 * The value is decoded directly from the native tuple data.
+	 * @param owner The owner of the tuple.
+	 * @param name The name of the tuple.
+	 * @param type The type of the value.
+	 * @return The value, or {@code null} if the tuple was not found.
+	 */
+	public static <T> T peisjava_getTuple(int owner, String name, Class<T> type) {
+		final PeisTuple tup = peisjava_getTuple(owner, name);
+		if (tup == null)
+			return null;
+		try {
+			return tup.getData(type);
+		} finally {
+			peisjava_freeTuple(tup);
+		}
 	}
 	
 	/**
@@ -153,6 +373,96 @@ public class PeisJavaMT {
 	}
 	
 	
+	/**
+	 * Serve {@code peisjava_getTuple}, {@code peisjava_getStringTuple} and {@code peisjava_getByteTuple}
+	 * from a Java-side cache which is kept fresh by tuple callbacks (see {@link TupleCache}).
+	 * Replaces any previously enabled cache.
+	 * @param capacity The maximum number of cached tuples (least recently read ones are evicted).
+	 * @return The cache, for inspecting its statistics.
+	 */
+	public static TupleCache peisjava_enableTupleCache(int capacity) {
+		final TupleCache cache = new TupleCache(capacity);
+		final TupleCache old = tupleCache;
+		tupleCache = cache;
+		if (old != null)
+			old.clear();
+		return cache;
+	}
+	
+	/**
+	 * Stop caching tuples, cancelling the callbacks of the cache.
+	 */
+	public static void peisjava_disableTupleCache() {
+		final TupleCache old = tupleCache;
+		tupleCache = null;
+		if (old != null)
+			old.clear();
+	}
+	
+	/**
+	 * Get the tuple cache.
+	 * @return The cache enabled with {@link #peisjava_enableTupleCache(int)}, {@code null} if disabled.
+	 */
+	public static TupleCache peisjava_getTupleCache() {
+		return tupleCache;
+	}
+	
+	
+	/**
+	 * Publish the updates of a tuple as a {@link java.util.concurrent.Flow.Publisher} (see
+	 * {@link TuplePublisher}).  The publisher must be closed when no longer needed.
+	 * @param owner The owner of the tuple (-1 for wildcard).
+	 * @param key The key of the tuple.
+	 * @param executor The executor delivering updates to subscribers.
+	 * @param bufferCapacity The maximum number of updates buffered per subscriber.
+	 * @return The publisher.
+	 */
+	public static TuplePublisher peisjava_createTuplePublisher(int owner, String key, Executor executor, int bufferCapacity) {
+		return new TuplePublisher(owner, key, executor, bufferCapacity).open();
+	}
+	
+	/**
+	 * Publish the updates of a tuple as a {@link java.util.concurrent.Flow.Publisher} delivering
+	 * on {@link CallbackDispatcher#sharedExecutor()}.
+	 * @param owner The owner of the tuple (-1 for wildcard).
+	 * @param key The key of the tuple.
+	 * @param bufferCapacity The maximum number of updates buffered per subscriber.
+	 * @return The publisher.
+	 */
+	public static TuplePublisher peisjava_createTuplePublisher(int owner, String key, int bufferCapacity) {
+		return peisjava_createTuplePublisher(owner, key, CallbackDispatcher.sharedExecutor(), bufferCapacity);
+	}
+	
+	/**
+	 * Open a stream of chunk tuples written with a {@link TupleOutputStream} (see
+	 * {@link TupleInputStream}).  Bytes can be read as soon as the first chunk arrives.
+	 * @param owner The owner of the stream.
+	 * @param key The key of the stream.
+	 * @param timeout The maximum time to wait for the manifest and for each chunk.
+	 * @param unit The unit of {@code timeout}.
+	 * @return The stream.
+	 * @throws IOException If no manifest arrived in time.
+	 */
+	public static TupleInputStream peisjava_openTupleStream(int owner, String key, long timeout, TimeUnit unit) throws IOException {
+		return new TupleInputStream(owner, key, timeout, unit);
+	}
+	
+	/**
+	 * Publish the contents of an InputStream in local tuplespace as a stream of chunk tuples
+	 * (see {@link TupleOutputStream}).
+	 * @param key The key of the stream.
+	 * @param in The data to publish, read until its end.
+	 * @param chunkSize The maximum payload of a chunk tuple.
+	 * @return The number of bytes published.
+	 * @throws IOException If reading {@code in} fails.
+	 */
+	public static long peisjava_setStreamTuple(String key, InputStream in, int chunkSize) throws IOException {
+		try (TupleOutputStream out = new TupleOutputStream(key, chunkSize)) {
+			return in.transferTo(out);
+		}
+	}
+	
+	
 	/**
 	 * Initializes a meta tuple to reasonable default values.
 	 * @param metaOwner The owner of the meta tuple.
@@ -176,10 +486,24 @@ public class PeisJavaMT {
 	 * @param tuple
 	 */
 	public static void peisjava_freeTuple(PeisTuple tuple) {
+		if (tuple == null || tuple.isJavaOwned())
+			return;
 		INSTANCE.peiskmt_deAllocateTuple(tuple);
 	}
 	
 	
+	/**
+	 * Release the tuple read with {@link #peisjava_getTupleView(int, String)}.
+	 * @param view The view to release, detached from its tuple on return.
+	 */
+	public static void peisjava_freeTuple(PeisTupleView view) {
+		if (view == null || view.getPointer() == null)
+			return;
+		INSTANCE.peiskmt_deAllocateTupleRef(view.getPointer());
+		view.wrap(null);
+	}
+	
+	
 	/**
 	 * Use the meta tuple given by (metaOwner,metaKey) to find a reference to a
 	 * specific tuple. Returns this referenced tuple [metaOwner,metaKey] if found.
@@ -192,6 +516,18 @@ public class PeisJavaMT {
 	public static PeisTuple peisjava_getTupleIndirectly(int metaOwner, String metaKey) {
 		return INSTANCE.peiskmt_getTupleIndirectly(metaOwner, metaKey, 0);
 	}
+	
+	/**
+	 * Get the tuple referenced by the meta tuple given by (metaOwner,metaKey), owned by a handle
+	 * which frees it when closed.
+	 * @param metaOwner The owner of the meta tuple.
+	 * @param metaKey The key of the meta tuple.
+	 * @return A handle to the referenced tuple, {@code null} if not found.
+	 */
+	public static TupleHandle peisjava_getTupleIndirectlyHandle(int metaOwner, String metaKey) {
+		final PeisTuple tup = peisjava_getTupleIndirectly(metaOwner, metaKey);
+		return tup == null ? null : new TupleHandle(tup);
+	}
 
 	
 	/**
@@ -202,6 +538,98 @@ public class PeisJavaMT {
 		return INSTANCE.peiskmt_isRunning();
 	}
 	
+	/**
+	 * Get the asynchronous facade of the tuple operations, whose calls run on a dedicated
+	 * I/O executor and return {@link java.util.concurrent.CompletableFuture}s.
+	 * @return The shared {@link PeisJavaAsync} instance.
+	 */
+	public static PeisJavaAsync peisjava_async() {
+		return PeisJavaAsync.shared();
+	}
+	
+	/**
+	 * Keep a memory-mapped snapshot of the tuples this process sets and subscribes to, for a
+	 * warm restart.  The existing snapshot in {@code file}, if any, is mapped, and
+	 * {@link #peisjava_getTuple(int, String)} serves its tuples until the kernel has live
+	 * values for them.  A new snapshot is written every {@code interval} and at
+	 * {@link #peisjava_shutdown()}.  Also enabled by {@code peisjava_initialize} if the system
+	 * property {@value #SNAPSHOT_PROPERTY} names a file.
+	 * @param file The snapshot file.
+	 * @param interval The time between snapshots.
+	 * @param unit The unit of {@code interval}.
+	 */
+	public static synchronized void peisjava_enableSnapshot(Path file, long interval, TimeUnit unit) {
+		peisjava_disableSnapshot(false);
+		snapshot = new TupleSnapshot(file, interval, unit);
+	}
+	
+	/**
+	 * Stop writing snapshots and serving tuples from the mapped one.
+	 * @param writeLast Whether to write a last snapshot first.
+	 */
+	public static synchronized void peisjava_disableSnapshot(boolean writeLast) {
+		final TupleSnapshot s = snapshot;
+		if (s != null) {
+			s.close(writeLast);
+			snapshot = null;
+		}
+	}
+	
+	/**
+	 * Write a snapshot now, e.g., after a burst of important updates.
+	 * @throws IOException If the snapshot file cannot be written.
+	 */
+	public static void peisjava_writeSnapshot() throws IOException {
+		final TupleSnapshot s = snapshot;
+		if (s != null)
+			s.write();
+	}
+	
+	private static void trackOwn(String key) {
+		final TupleSnapshot s = snapshot;
+		if (s != null)
+			s.trackOwn(key);
+	}
+	
+	/**
+	 * Compress binary tuples of at least the given size set with {@code peisjava_setTuple},
+	 * {@code peisjava_setRemoteTuple} and {@code peisjava_setTupleIndirectly} with deflate.
+	 * Compressed data carries a checksummed in-band header and {@code ;encoding=deflate} is
+	 * appended to its mimetype; {@link PeisTuple#getByteData()} and
+	 * {@link PeisTuple#getByteBuffer()} inflate it automatically (as a heap copy).
+	 * @param bytes The minimum size of the compressed values, or 0 to disable compression.
+	 */
+	public static void peisjava_setCompressionThreshold(int bytes) {
+		TupleCompression.setThreshold(bytes);
+	}
+	
+	/**
+	 * @return The minimum size of compressed binary tuples, 0 if compression is disabled.
+	 */
+	public static int peisjava_getCompressionThreshold() {
+		return TupleCompression.getThreshold();
+	}
+	
+	/**
+	 * Get the counters and latency histograms of the calls into the kernel and of the
+	 * tuple callbacks, also exposed as MXBeans in the {@code srnp} JMX domain.
+	 * @return The metrics of the kernel binding.
+	 */
+	public static PeisJavaMetrics peisjava_getMetrics() {
+		return PeisJavaMetrics.get();
+	}
+	
+	/**
+	 * Get the current time in the unit of {@link PeisTuple#getTsWriteMicros()}, for freshness
+	 * checks with {@link PeisTuple#ageMicros(long)} and {@link PeisTuple#isExpired(long)}.
+	 * The time stamps of tuples are in UTC; this reads the system clock (millisecond
+	 * resolution) and does not allocate.
+	 * @return The current time in microseconds since the epoch.
+	 */
+	public static long peisjava_currentTimeMicros() {
+		return System.currentTimeMillis() * 1000L;
+	}
+	
 	/**
 	 * Get the id of this peiskernel.
 	 * @return The id of this peiskernel.
@@ -227,6 +655,58 @@ public class PeisJavaMT {
 	}
 	
 	
+	/**
+	 * Register a callback on a tuple which is run by the given {@link CallbackDispatcher}
+	 * instead of the kernel thread.  The kernel thread only enqueues a copy of each update.
+	 * @param owner The owner of the tuple to register the callback to.
+	 * @param key The key of the tuple to register the callback to.
+	 * @param co A class extending the {@link CallbackObject} abstract class.
+	 * @param dispatcher The dispatcher running the callback.
+	 * @return The handle of the callback, to be used for unregistering.
+	 */
+	public static double peisjava_registerTupleCallback(int owner, String key, CallbackObject co, CallbackDispatcher dispatcher) {
+		return peiskThread.registerCallback(key, owner, dispatcher.wrap(co));
+	}
+	
+	
+	/**
+	 * Register a callback on a tuple which receives a {@link PeisTupleView} of the native
+	 * struct instead of a copied {@link PeisTuple}.  The view is only valid during the callback.
+	 * @param owner The owner of the tuple to register the callback to.
+	 * @param key The key of the tuple to register the callback to.
+	 * @param cb A class extending the {@link TupleViewCallback} abstract class.
+	 * @return The handle of the callback, to be used for unregistering with
+	 * {@link #peisjava_unregisterTupleCallback(double)}.
+	 */
+	public static double peisjava_registerTupleViewCallback(int owner, String key, TupleViewCallback cb) {
+		return peiskThread.registerViewCallback(key, owner, cb);
+	}
+	
+	
+	/**
+	 * Register a callback on all tuples whose key matches a pattern (see {@link KeyPatternDispatcher}).
+	 * Keys are dot-separated; {@code *} matches one segment and a trailing {@code **} any number
+	 * of segments, e.g., {@code sensors.lidar.*} or {@code sensors.**}.  All patterns of an owner
+	 * share one kernel callback.
+	 * @param owner The owner of the tuples (-1 for any owner).
+	 * @param pattern The key pattern.
+	 * @param co A class extending the {@link CallbackObject} abstract class.
+	 * @return The handle of the callback, to be used with {@link #peisjava_unregisterPatternCallback(double)}.
+	 */
+	public static double peisjava_registerPatternCallback(int owner, String pattern, CallbackObject co) {
+		return patterns.register(owner, pattern, co);
+	}
+	
+	/**
+	 * Unregister a callback registered with {@link #peisjava_registerPatternCallback(int, String, CallbackObject)}.
+	 * @param handle The handle of the callback.
+	 * @return {@code true} iff the callback was registered.
+	 */
+	public static boolean peisjava_unregisterPatternCallback(double handle) {
+		return patterns.unregister(handle);
+	}
+	
+	
 	/**
 	 * Unregister a tuple callback given the {@link PeisJavaInterface.PeisTupleCallback} object returned
 	 * by {@link PeisJavaMT#peisjava_registerTupleCallback(String, int, String)}.
@@ -243,11 +723,18 @@ public class PeisJavaMT {
 	 * subscribe but also works with a metaSubscription.
 	 * @param metaKey The key of the meta tuple.
 	 * @param metaOwner The owner of the meta tuple.
-	 * @param value The String value to set.
-	 * @return Zero on success, error code otherwise.
+	 * @param value The String value to set.  A String value of "nil" is set if
+	 * this parameter is {@code null}.
 	 */
 	public static void peisjava_setStringTupleIndirectly(int metaOwner, String metaKey, String value) {
-		INSTANCE.peiskmt_setStringTupleIndirectly(metaOwner, metaKey, value);
+		final String s = value == null ? "nil" : value;
+		final int len = StringCodec.encodedLength(s);
+		final Memory m = StringCodec.encode(s, len);
+		try {
+			INSTANCE.peiskmt_setTupleIndirectly(metaOwner, metaKey, len + 1, m, "text/plain", 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
 	}
 	
 	
@@ -259,10 +746,14 @@ public class PeisJavaMT {
 	 * this parameter is {@code null}.
 	 */
 	public static void peisjava_setStringTuple(String name, String value) {
-		if (value == null) {
-			INSTANCE.peiskmt_setStringTuple(name,"nil");
-		} else {
-			INSTANCE.peiskmt_setStringTuple(name,value);
+		final String s = value == null ? "nil" : value;
+		final int len = StringCodec.encodedLength(s);
+		final Memory m = StringCodec.encode(s, len);
+		try {
+			INSTANCE.peiskmt_setTuple(name, len + 1, m, "text/plain", 0);
+			trackOwn(name);
+		} finally {
+			NativeBufferPool.shared().release(m);
 		}
 	}
 	
@@ -275,10 +766,67 @@ public class PeisJavaMT {
 	 * @param value The data to write into the tuple.
 	 */
 	public static void peisjava_setTuple(String key, byte[] value, String mimetype) {
-		Memory m = new Memory(value.length);
-		m.write(0, value, 0, value.length);
-		
-		INSTANCE.peiskmt_setTuple(key, value.length, m, mimetype, 0);
+		final Memory m = NativeBufferPool.shared().acquire(value.length);
+		try {
+			final int len = TupleCompression.encode(value, m);
+			INSTANCE.peiskmt_setTuple(key, len, m, TupleCompression.mimetype(mimetype, len < value.length), 0);
+			trackOwn(key);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
+	}
+	
+	
+	/**
+	 * Set a tuple in local tuplespace to a value encoded with the {@link TupleCodec} of its
+	 * type (see {@link TupleCodecs}).  The value is encoded directly into native memory and
+	 * the tuple gets the mimetype of the codec.
+	 * @param key The key of the tuple to set.
+	 * @param value The value to set.
+	 */
+	public static <T> void peisjava_setTuple(String key, T value) {
+		final TupleCodec<T> codec = TupleCodecs.forValue(value);
+		final int len = codec.encodedLength(value);
+		final Memory m = NativeBufferPool.shared().acquire(len);
+		try {
+			codec.write(value, m.getByteBuffer(0, len).order(ByteOrder.LITTLE_ENDIAN));
+			INSTANCE.peiskmt_setTuple(key, len, m, codec.getMimetype(), 0);
+			trackOwn(key);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
+	}
+	
+	/**
+	 * Set several tuples in local tuplespace with a single call into the kernel.  The tuples
+	 * are marshalled into one contiguous native buffer.  If the srnp_wrapper library does not
+	 * provide {@code peiskmt_setTuples}, the tuples are set one by one.
+	 * @param batch The tuples to set.
+	 */
+	public static void peisjava_setTuples(TupleBatch batch) {
+		if (batch.size() == 0)
+			return;
+		if (batchSupported) {
+			final int len = batch.encodedLength();
+			final Memory m = NativeBufferPool.shared().acquire(len);
+			try {
+				batch.encode(m.getByteBuffer(0, len));
+				INSTANCE.peiskmt_setTuples(batch.size(), m, len);
+				if (snapshot != null) {
+					for (int i = 0; i < batch.size(); i++)
+						trackOwn(batch.getKey(i));
+				}
+				return;
+			} catch (UnsatisfiedLinkError e) {
+				System.out.println("peiskmt_setTuples not available, setting tuples one by one");
+				batchSupported = false;
+			} finally {
+				NativeBufferPool.shared().release(m);
+			}
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			peisjava_setTuple(batch.getKey(i), batch.getValue(i), batch.getMimetype(i));
+		}
 	}
 	
 	
@@ -288,8 +836,16 @@ public class PeisJavaMT {
 	 * @param key The key of the tuple to subscribe.
 	 * @param owner The owner of the tuple to subscribe (-1 for wildcard).
 	 */
-	public static synchronized PeisSubscriberHandle peisjava_subscribe(int owner, String key) {
-		return PeisJavaMT.INSTANCE.peiskmt_subscribe(owner, key);
+	public static PeisSubscriberHandle peisjava_subscribe(int owner, String key) {
+		final TupleSnapshot s = snapshot;
+		if (s != null)
+			s.trackSubscription(owner, key);
+		synchronized (locks.lockFor(owner, key)) {
+			final PeisSubscriberHandle handle = INSTANCE.peiskmt_subscribe(owner, key);
+			if (handle != null)
+				subscriptionKeys.put(handle, new TupleKey(owner, key));
+			return handle;
+		}
 	}
 	
 	
@@ -301,8 +857,8 @@ public class PeisJavaMT {
 	 * @param metaOwner The owner of the meta tuple to subscribe to.
 	 * @return The subscription handle, {@code null} if the operation fails.
 	 */	
-	public static synchronized void peisjava_subscribeIndirectly(String metaKey) {
-		INSTANCE.peiskmt_subscribeIndirectly(INSTANCE.peiskmt_peisid(), metaKey);	
+	public static void peisjava_subscribeIndirectly(String metaKey) {
+		peisjava_subscribeIndirectly(INSTANCE.peiskmt_peisid(), metaKey);
 	}
 	
 	
@@ -313,8 +869,10 @@ public class PeisJavaMT {
 	 * @param metaOwner The owner of the meta tuple to subscribe to.
 	 * @return The subscription handle, {@code null} if the operation fails.
 	 */	
-	public static synchronized void peisjava_subscribeIndirectly(int metaOwner, String metaKey) {
-		INSTANCE.peiskmt_subscribeIndirectly(metaOwner, metaKey);	
+	public static void peisjava_subscribeIndirectly(int metaOwner, String metaKey) {
+		synchronized (locks.lockFor(metaOwner, metaKey)) {
+			INSTANCE.peiskmt_subscribeIndirectly(metaOwner, metaKey);
+		}
 	}
 
 	
@@ -323,8 +881,12 @@ public class PeisJavaMT {
 	 * Unsubscribe to tuples.
 	 * @param handle The handle of the subscription to unsunbscribe.
 	 */
-	public static synchronized boolean peisjava_unsubscribe(PeisSubscriberHandle handle) {
-		return !INSTANCE.peiskmt_unsubscribe(handle);
+	public static boolean peisjava_unsubscribe(PeisSubscriberHandle handle) {
+		final TupleKey k = subscriptionKeys.get(handle);
+		synchronized (k != null ? locks.lockFor(k.owner, k.key) : locks.lockFor(handle)) {
+			subscriptionKeys.remove(handle);
+			return !INSTANCE.peiskmt_unsubscribe(handle);
+		}
 	}
 	
 	
@@ -335,8 +897,10 @@ public class PeisJavaMT {
 	 * @param realOwner The owner of the real tuple.
 	 * @param realKey The key of the real tuple.
 	 */
-	public static synchronized void peisjava_setMetaTuple(int metaOwner, String metaKey, int realOwner, String realKey) {
-		INSTANCE.peiskmt_setMetaTuple(metaOwner, metaKey, realOwner, realKey);
+	public static void peisjava_setMetaTuple(int metaOwner, String metaKey, int realOwner, String realKey) {
+		synchronized (locks.lockFor(metaOwner, metaKey)) {
+			INSTANCE.peiskmt_setMetaTuple(metaOwner, metaKey, realOwner, realKey);
+		}
 	}
 	
 
@@ -386,10 +950,18 @@ public class PeisJavaMT {
 	 * earlier.
 	 * @param key The key of the tuple to set.
 	 * @param owner The owner of the tuple to set.
-	 * @param value The data to set.
+	 * @param value The data to set.  A String value of "nil" is set if
+	 * this parameter is {@code null}.
 	 */
 	public static void peisjava_setRemoteStringTuple(int owner, String key, String value) {
-		INSTANCE.peiskmt_setRemoteStringTuple(owner, key, value);
+		final String s = value == null ? "nil" : value;
+		final int len = StringCodec.encodedLength(s);
+		final Memory m = StringCodec.encode(s, len);
+		try {
+			INSTANCE.peiskmt_setRemoteTuple(owner, key, len + 1, m, "text/plain", 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
 	}
 	
 	/**
@@ -405,10 +977,13 @@ public class PeisJavaMT {
 	//ADDED
 	//DO EXCEPTION
 	public static void peisjava_setTupleIndirectly(int metaOwner, String metaKey, byte[] value, String mimetype) {
-		Memory m = new Memory(value.length);
-		m.write(0, value, 0, value.length);
-
-		INSTANCE.peiskmt_setTupleIndirectly(metaOwner, metaKey, value.length, m, mimetype, 0);
+		final Memory m = NativeBufferPool.shared().acquire(value.length);
+		try {
+			final int len = TupleCompression.encode(value, m);
+			INSTANCE.peiskmt_setTupleIndirectly(metaOwner, metaKey, len, m, TupleCompression.mimetype(mimetype, len < value.length), 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
 	}
 	
 	
@@ -424,8 +999,12 @@ public class PeisJavaMT {
 	 * @param encoding Whether the data is ASCII or binary.
 	 */ //ADDED
 	public static void peisjava_setRemoteTuple(int owner, String key, byte[] data, String mimetype) {
-		Memory m = new Memory(data.length);
-		m.write(0, data, 0, data.length);
-		INSTANCE.peiskmt_setRemoteTuple(owner, key, data.length, m, mimetype, 0);
+		final Memory m = NativeBufferPool.shared().acquire(data.length);
+		try {
+			final int len = TupleCompression.encode(data, m);
+			INSTANCE.peiskmt_setRemoteTuple(owner, key, len, m, TupleCompression.mimetype(mimetype, len < data.length), 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
 	}
 }
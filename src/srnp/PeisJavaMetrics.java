@@ -0,0 +1,195 @@
+package srnp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of the calls from Java into the kernel and of the tuple callbacks it runs.
+ * Every backend selected for {@link PeisJavaMT#INSTANCE} is wrapped in a recording decorator
+ * which counts calls, errors and tuple data bytes and keeps a latency histogram per operation
+ * (get, set, subscribe and their remote and indirect variants) and per callback key.
+ * The counters are striped and lock-free, so recording can stay on in production; it can
+ * be switched off at runtime with {@link #setEnabled(boolean)}, or entirely with the system
+ * property {@code srnp.metrics=false}.  All statistics are exposed as MXBeans under the
+ * {@code srnp} JMX domain, and through {@link PeisJavaMT#peisjava_getMetrics()}.
+ */
+public final class PeisJavaMetrics implements PeisJavaMetricsMXBean {
+
+	static final String PROPERTY = "srnp.metrics";
+
+	static final String DOMAIN = "srnp";
+
+	/**
+	 * Maximum number of keys with their own callback statistics; callbacks on further
+	 * keys are recorded together under {@link #OTHER_KEYS}.
+	 */
+	static final int MAX_CALLBACK_KEYS = 256;
+
+	static final String OTHER_KEYS = "*";
+
+	static final boolean AVAILABLE = !"false".equalsIgnoreCase(System.getProperty(PROPERTY));
+
+	private static volatile boolean enabled = AVAILABLE;
+
+	private static final PeisJavaMetrics METRICS = new PeisJavaMetrics();
+
+	private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<String, OperationStats>();
+
+	private final ConcurrentHashMap<String, OperationStats> callbacks = new ConcurrentHashMap<String, OperationStats>();
+
+	static final OperationStats GET = METRICS.operation("get");
+	static final OperationStats GET_INDIRECT = METRICS.operation("getIndirectly");
+	static final OperationStats SET = METRICS.operation("set");
+	static final OperationStats SET_BATCH = METRICS.operation("setBatch");
+	static final OperationStats SET_REMOTE = METRICS.operation("setRemote");
+	static final OperationStats SET_INDIRECT = METRICS.operation("setIndirectly");
+	static final OperationStats SUBSCRIBE = METRICS.operation("subscribe");
+	static final OperationStats SUBSCRIBE_INDIRECT = METRICS.operation("subscribeIndirectly");
+	static final OperationStats UNSUBSCRIBE = METRICS.operation("unsubscribe");
+
+	private PeisJavaMetrics() {
+		register(this, DOMAIN + ":type=Metrics");
+	}
+
+	/**
+	 * @return The metrics of the kernel binding.
+	 */
+	public static PeisJavaMetrics get() {
+		return METRICS;
+	}
+
+	/**
+	 * Wrap a backend in the recording decorator, unless metrics are disabled by property.
+	 */
+	static PeisJavaInterface wrap(PeisJavaInterface backend) {
+		return AVAILABLE ? new MeteredBackend(backend) : backend;
+	}
+
+	/**
+	 * Start timing a call.
+	 * @return The start time to pass to {@link OperationStats#record(long, long)}, or zero
+	 * if recording is off.
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0L;
+	}
+
+	private static void register(Object bean, String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+		} catch (JMException e) {
+			System.out.println("Could not register MBean " + name + " (" + e + ")");
+		} catch (SecurityException e) {
+			System.out.println("Could not register MBean " + name + " (" + e + ")");
+		}
+	}
+
+	private OperationStats operation(String name) {
+		final OperationStats stats = new OperationStats(name);
+		operations.put(name, stats);
+		register(stats, DOMAIN + ":type=Operation,name=" + name);
+		return stats;
+	}
+
+	/**
+	 * Get the statistics of the callbacks on a key, creating them on first use.
+	 */
+	static OperationStats callback(String key) {
+		return METRICS.callbackStats(key == null ? OTHER_KEYS : key);
+	}
+
+	private OperationStats callbackStats(String key) {
+		OperationStats stats = callbacks.get(key);
+		if(stats != null) {
+			return stats;
+		}
+		if(callbacks.size() >= MAX_CALLBACK_KEYS) {
+			key = OTHER_KEYS;
+		}
+		synchronized (callbacks) {
+			stats = callbacks.get(key);
+			if(stats == null) {
+				stats = new OperationStats(key);
+				callbacks.put(key, stats);
+				register(stats, DOMAIN + ":type=Callback,key=" + ObjectName.quote(key));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Get the statistics of an operation.
+	 * @param name One of the names returned by {@link #getOperations()}.
+	 * @return The statistics, or {@code null} if there is no such operation.
+	 */
+	public OperationStatsMXBean getOperation(String name) {
+		return operations.get(name);
+	}
+
+	/**
+	 * Get the statistics of the callbacks on a key.
+	 * @param key One of the keys returned by {@link #getCallbackKeys()}.
+	 * @return The statistics, or {@code null} if no callback on the key was registered.
+	 */
+	public OperationStatsMXBean getCallback(String key) {
+		return callbacks.get(key);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		if(enabled && !AVAILABLE) {
+			System.out.println("Metrics disabled by -D" + PROPERTY + "=false");
+			return;
+		}
+		PeisJavaMetrics.enabled = enabled;
+	}
+
+	@Override
+	public long getBytesPublished() {
+		return SET.getBytes() + SET_BATCH.getBytes() + SET_REMOTE.getBytes() + SET_INDIRECT.getBytes();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		long bytes = GET.getBytes() + GET_INDIRECT.getBytes();
+		for(OperationStats stats : callbacks.values()) {
+			bytes += stats.getBytes();
+		}
+		return bytes;
+	}
+
+	@Override
+	public String[] getOperations() {
+		return operations.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public String[] getCallbackKeys() {
+		return callbacks.keySet().toArray(new String[0]);
+	}
+
+	@Override
+	public void reset() {
+		final List<OperationStats> all = new ArrayList<OperationStats>(operations.values());
+		all.addAll(callbacks.values());
+		for(OperationStats stats : all) {
+			stats.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PeisJavaMetrics <enabled=" + enabled + ", published=" + getBytesPublished() + ", received="
+				+ getBytesReceived() + ", operations=" + operations.values() + ">";
+	}
+}
@@ -0,0 +1,44 @@
+package srnp;
+
+/**
+ * Summary of the metrics of the kernel binding, registered with the platform MBean server
+ * under {@code srnp:type=Metrics}.  See {@link PeisJavaMetrics}.
+ */
+public interface PeisJavaMetricsMXBean {
+
+	/**
+	 * @return {@code true} if calls and callbacks are being recorded.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Start or stop recording.
+	 * @param enabled Whether to record calls and callbacks.
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * @return The number of tuple data bytes handed to the kernel by set calls.
+	 */
+	long getBytesPublished();
+
+	/**
+	 * @return The number of tuple data bytes read by get calls and delivered to callbacks.
+	 */
+	long getBytesReceived();
+
+	/**
+	 * @return The names of the recorded operations.
+	 */
+	String[] getOperations();
+
+	/**
+	 * @return The keys with recorded callbacks.
+	 */
+	String[] getCallbackKeys();
+
+	/**
+	 * Set all counters to zero.
+	 */
+	void reset();
+}
@@ -1,9 +1,46 @@
 package srnp;
 
+import java.time.Instant;
 import java.util.Date;
 
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
 final class PeisJavaUtilities {
 	
+	/**
+	 * Per-thread scratch word used to convert between JNA {@link Pointer}s and raw
+	 * addresses (the bundled JNA does not expose the peer of a {@link Pointer}).
+	 */
+	private static final ThreadLocal<Memory> SCRATCH = new ThreadLocal<Memory>() {
+		@Override
+		protected Memory initialValue() {
+			return new Memory(8);
+		}
+	};
+	
+	final static long addressOf(Pointer pointer) {
+		if(pointer == null) {
+			return 0L;
+		}
+		final Memory scratch = SCRATCH.get();
+		scratch.setPointer(0, pointer);
+		return Pointer.SIZE == 8 ? scratch.getLong(0) : scratch.getInt(0) & 0xffffffffL;
+	}
+	
+	final static Pointer pointerAt(long address) {
+		if(address == 0L) {
+			return null;
+		}
+		final Memory scratch = SCRATCH.get();
+		if(Pointer.SIZE == 8) {
+			scratch.setLong(0, address);
+		} else {
+			scratch.setInt(0, (int) address);
+		}
+		return scratch.getPointer(0);
+	}
+	
 	final static Date getJavaDateFromPeisDate(int s, int us) {
 
 		if(s < 0 || us < 0) {
@@ -16,9 +53,41 @@ final class PeisJavaUtilities {
 		
 		//This seems to work. The assumption is that the 
 		//PEIS time is in UTC and that Java does the necessary adjustments.
-		final Date date = new Date(ms);
-		System.out.println(date);
-		return date;
+		return new Date(ms);
+	}
+	
+	/**
+	 * Value returned by the microsecond accessors for undefined (wildcard) time stamps.
+	 */
+	final static long UNDEFINED_TIME = -1L;
+	
+	final static long getEpochMicrosFromPeisDate(int s, int us) {
+		if(s < 0 || us < 0) {
+			return UNDEFINED_TIME;
+		}
+		return s * 1000000L + us;
+	}
+	
+	final static Instant getInstantFromPeisDate(int s, int us) {
+		if(s < 0 || us < 0) {
+			return null;
+		}
+		return Instant.ofEpochSecond(s, us * 1000L);
+	}
+	
+	/**
+	 * Age of a tuple written at {@code writeMicros}, {@link Long#MAX_VALUE} if the write
+	 * time stamp is undefined.
+	 */
+	final static long ageMicros(long writeMicros, long nowMicros) {
+		return writeMicros == UNDEFINED_TIME ? Long.MAX_VALUE : nowMicros - writeMicros;
+	}
+	
+	/**
+	 * Whether a tuple expiring at {@code expireMicros} has expired; zero expires never.
+	 */
+	final static boolean isExpired(long expireMicros, long nowMicros) {
+		return expireMicros > 0 && nowMicros >= expireMicros;
 	}
 	
 	final static Date setPeisDateFromJavaDate(Date date, int[] out) {
@@ -24,6 +24,9 @@
 package srnp;
 
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Instant;
 import java.util.Date;
 
 import com.sun.jna.Memory;
@@ -76,6 +79,23 @@ public class PeisTuple extends Structure {
 	 * Timestamp when tuple expires. Zero expires never, -1 as wildcard.
 	 */
 	public int[] ts_expire;
+	
+	/**
+	 * Pooled native buffer currently holding the data of this tuple (not part of the struct).
+	 */
+	private Memory pooledData;
+	
+	/**
+	 * Whether key and data are owned by Java rather than by the kernel (not part of the struct).
+	 */
+	private boolean javaOwned = false;
+	
+	/**
+	 * Decoded String data, valid while data and datalen are those it was decoded from (not part of the struct).
+	 */
+	private String stringData;
+	private Pointer stringDataPointer;
+	private int stringDataLen;
 
 	/**
 	 * Create a new tuple.  The preferred method for creating tuples are the factory
@@ -93,25 +113,161 @@ public class PeisTuple extends Structure {
 	}
 	
 	/**
-	 * Get the data in this tuple as a String. 
+	 * Create a tuple backed by the native struct at the given address (used by
+	 * binding backends that obtain the struct pointer without JNA's proxy).
+	 * @param tuple Pointer to a native {@code PeisTuple} struct.
+	 */
+	PeisTuple(Pointer tuple) {
+		this();
+		useMemory(tuple);
+		read();
+	}
+	
+	/**
+	 * Create a tuple whose key and data point to the given (Java-owned) native memory.
+	 * The struct itself is written, so {@link #getPointer()} is a valid {@code PeisTuple*}.
+	 * @param owner The owner of the tuple.
+	 * @param key Pointer to the NUL-terminated key.
+	 * @param data Pointer to the data, or {@code null}.
+	 * @param datalen The length of the data.
+	 * @param tsWriteSec Seconds part of the write time stamp.
+	 * @param tsWriteUsec Microseconds part of the write time stamp.
+	 * @return The new tuple.
+	 */
+	static PeisTuple create(int owner, Pointer key, Pointer data, int datalen, int tsWriteSec, int tsWriteUsec) {
+		final PeisTuple tuple = new PeisTuple();
+		tuple.owner = owner;
+		tuple.key.setPointer(key);
+		tuple.data.setPointer(data);
+		tuple.datalen = datalen;
+		tuple.ts_write[0] = tsWriteSec;
+		tuple.ts_write[1] = tsWriteUsec;
+		tuple.javaOwned = true;
+		tuple.write();
+		return tuple;
+	}
+	
+	/**
+	 * Create a tuple sharing the key and data memory of this one.
+	 * @return A new struct pointing to the same key and data.
+	 */
+	PeisTuple share() {
+		final PeisTuple tuple = create(this.owner, this.key.getPointer(), this.data.getPointer(), this.datalen, this.ts_write[0], this.ts_write[1]);
+		tuple.ts_expire[0] = this.ts_expire[0];
+		tuple.ts_expire[1] = this.ts_expire[1];
+		tuple.write();
+		return tuple;
+	}
+	
+	/**
+	 * @return {@code true} if key and data of this tuple are owned by Java, so it must not be
+	 * passed to the kernel's deallocator.
+	 */
+	boolean isJavaOwned() {
+		return this.javaOwned;
+	}
+	
+	/**
+	 * Get a copy of this tuple whose key and data live in memory owned by the copy.  Tuples
+	 * passed to callbacks point into kernel memory that is only valid during the callback;
+	 * copy them to hand them to other threads.
+	 * @return A detached copy of this tuple.
+	 */
+	public PeisTuple copy() {
+		Memory keyCopy = null;
+		final Pointer k = this.key == null ? null : this.key.getPointer();
+		if (k != null) {
+			final int len = (int) k.indexOf(0, (byte) 0) + 1;
+			keyCopy = new Memory(len);
+			keyCopy.getByteBuffer(0, len).put(k.getByteBuffer(0, len));
+		}
+		Memory dataCopy = null;
+		final Pointer d = this.data == null ? null : this.data.getPointer();
+		if (d != null && this.datalen > 0) {
+			dataCopy = new Memory(this.datalen);
+			dataCopy.getByteBuffer(0, this.datalen).put(d.getByteBuffer(0, this.datalen));
+		}
+		final PeisTuple copy = create(this.owner, keyCopy, dataCopy, this.datalen, this.ts_write[0], this.ts_write[1]);
+		copy.ts_expire[0] = this.ts_expire[0];
+		copy.ts_expire[1] = this.ts_expire[1];
+		copy.write();
+		return copy;
+	}
+	
+	/**
+	 * Get the data in this tuple as a String, decoded as UTF-8.  The String is kept with
+	 * the tuple, so repeated calls do not decode again (unless the system property
+	 * {@code srnp.stringCache} is {@code false}).
 	 * @return A string containing the data in this tuple.
 	 */
 	public String getStringData() {
-		if (this.data != null)
-			return this.data.getPointer().getString(0);
-		return null;
+		if (this.data == null || this.data.getPointer() == null)
+			return null;
+		final Pointer p = this.data.getPointer();
+		if (this.stringData != null && this.stringDataLen == this.datalen && p.equals(this.stringDataPointer))
+			return this.stringData;
+		final String s = StringCodec.decode(p, this.datalen);
+		if (StringCodec.CACHE)
+			cacheString(s, p);
+		return s;
+	}
+	
+	private void cacheString(String s, Pointer p) {
+		this.stringData = s;
+		this.stringDataPointer = p;
+		this.stringDataLen = this.datalen;
 	}
 	
 	/**
-	 * Get the data in this tuple as a byte array. 
+	 * Get the data in this tuple as a byte array.  Data compressed by the writer (see
+	 * {@link PeisJavaMT#peisjava_setCompressionThreshold(int)}) is inflated.
 	 * @return A byte array containing the data in this tuple.
 	 */
 	public byte[] getByteData() {
-		if (this.data != null)
-			return this.data.getPointer().getByteArray(0, this.datalen);
+		if (this.data != null && this.data.getPointer() != null) {
+			final Pointer p = this.data.getPointer();
+			final byte[] inflated = TupleCompression.decode(p, this.datalen);
+			return inflated != null ? inflated : p.getByteArray(0, this.datalen);
+		}
 		return null;
 	}
 	
+	/**
+	 * Get a read-only view over the data in this tuple, without copying it.  The view
+	 * points into native memory and is only valid as long as that memory is: until the
+	 * tuple is freed with {@link PeisJavaMT#peisjava_freeTuple(PeisTuple)} for tuples
+	 * obtained from {@code peisjava_getTuple}, and until {@link CallbackObject#callback(PeisTuple)}
+	 * returns for tuples passed to a callback.  Copy what must outlive that scope.
+	 * <br><br>
+	 * The exception is data compressed by the writer (see
+	 * {@link PeisJavaMT#peisjava_setCompressionThreshold(int)}): it is inflated into a new
+	 * heap buffer, so reading it is not zero-copy, and the buffer stays valid after the tuple
+	 * is freed.  Check {@link ByteBuffer#isDirect()} to tell the two apart.
+	 * @return A read-only {@link ByteBuffer} over the data, or {@code null} if there is none.
+	 */
+	public ByteBuffer getByteBuffer() {
+		if (this.data != null && this.data.getPointer() != null && this.datalen >= 0) {
+			final Pointer p = this.data.getPointer();
+			final byte[] inflated = TupleCompression.decode(p, this.datalen);
+			if (inflated != null)
+				return ByteBuffer.wrap(inflated).asReadOnlyBuffer();
+			return p.getByteBuffer(0, this.datalen).asReadOnlyBuffer();
+		}
+		return null;
+	}
+	
+	/**
+	 * Decode the data in this tuple with the {@link TupleCodec} of a type (see {@link TupleCodecs}).
+	 * @param type The type of the value.
+	 * @return The decoded value, or {@code null} if there is no data.
+	 */
+	public <T> T getData(Class<T> type) {
+		final ByteBuffer buf = getByteBuffer();
+		if (buf == null)
+			return null;
+		return TupleCodecs.forType(type).read(buf.order(ByteOrder.LITTLE_ENDIAN));
+	}
+	
 	/**
 	 * Return the key of this tuple.
 	 * @return The key of this tuple.
@@ -139,17 +295,19 @@ public class PeisTuple extends Structure {
 	}
 	
 	/**
-	 * Set the data of this tuple as a String.
+	 * Set the data of this tuple as a NUL-terminated UTF-8 String.
 	 * @param data The String containing the data.
 	 */
 	public void setStringData(String data) {
-		Memory m = new Memory(data.length()+1);
-		m.write(0, data.getBytes(), 0, data.length());
-		byte[] terminator = {0x0};
-		m.write(data.length(), terminator, 0, 1);
+		final int len = StringCodec.encodedLength(data);
+		final Memory m = StringCodec.encode(data, len);
 		if (this.data == null) this.data = new PointerByReference(); 
 		this.data.setPointer(m);
-		this.datalen = data.length()+1;
+		this.datalen = len+1;
+		releaseData();
+		this.pooledData = m;
+		if (StringCodec.CACHE)
+			cacheString(data, m);
 	}
 	
 
@@ -158,10 +316,25 @@ public class PeisTuple extends Structure {
 	 * @param data The byte array containing the data.
 	 */
 	public void setByteData(byte[] data) {
-		Memory m = new Memory(data.length);
-		m.write(0, data, 0, data.length);
+		final Memory m = NativeBufferPool.shared().copyOf(data);
+		if (this.data == null) this.data = new PointerByReference();
 		this.data.setPointer(m);
 		this.datalen = data.length;
+		releaseData();
+		this.pooledData = m;
+		this.stringData = null;
+	}
+	
+	/**
+	 * Return the native buffer holding the data set through {@link #setByteData(byte[])}
+	 * or {@link #setStringData(String)} to the {@link NativeBufferPool}.  The data of this tuple must no longer be used by
+	 * native code afterwards.  Called automatically when the data is replaced.
+	 */
+	public void releaseData() {
+		if (this.pooledData != null) {
+			NativeBufferPool.shared().release(this.pooledData);
+			this.pooledData = null;
+		}
 	}
 	
 		
@@ -197,5 +370,53 @@ public class PeisTuple extends Structure {
 	public Date setTsExpire(Date time) {
 		return PeisJavaUtilities.setPeisDateFromJavaDate(time, ts_expire);
 	}
+	
+	/**
+	 * @return The write time stamp in microseconds since the epoch, or -1 in case the time is undefined.
+	 */
+	public long getTsWriteMicros() {
+		return PeisJavaUtilities.getEpochMicrosFromPeisDate(ts_write[0], ts_write[1]);
+	}
+	
+	/**
+	 * @return The expire time stamp in microseconds since the epoch, zero if the tuple never
+	 * expires, or -1 in case the time is undefined.
+	 */
+	public long getTsExpireMicros() {
+		return PeisJavaUtilities.getEpochMicrosFromPeisDate(ts_expire[0], ts_expire[1]);
+	}
+	
+	/**
+	 * @return The write time stamp as an {@link Instant} or <code>null</code> in case the time is undefined.
+	 */
+	public Instant getTsWriteInstant() {
+		return PeisJavaUtilities.getInstantFromPeisDate(ts_write[0], ts_write[1]);
+	}
+	
+	/**
+	 * @return The expire time stamp as an {@link Instant} or <code>null</code> in case the time is undefined.
+	 */
+	public Instant getTsExpireInstant() {
+		return PeisJavaUtilities.getInstantFromPeisDate(ts_expire[0], ts_expire[1]);
+	}
+	
+	/**
+	 * Get the time elapsed since this tuple was written.
+	 * @param nowMicros The current time in microseconds since the epoch, e.g., from
+	 * {@link PeisJavaMT#peisjava_currentTimeMicros()}.
+	 * @return The age of the tuple in microseconds, {@link Long#MAX_VALUE} if the write time stamp is undefined.
+	 */
+	public long ageMicros(long nowMicros) {
+		return PeisJavaUtilities.ageMicros(getTsWriteMicros(), nowMicros);
+	}
+	
+	/**
+	 * Check whether this tuple has expired.
+	 * @param nowMicros The current time in microseconds since the epoch.
+	 * @return {@code true} iff the tuple has an expire time stamp and it is not after {@code nowMicros}.
+	 */
+	public boolean isExpired(long nowMicros) {
+		return PeisJavaUtilities.isExpired(getTsExpireMicros(), nowMicros);
+	}
 
 }
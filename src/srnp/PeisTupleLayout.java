@@ -0,0 +1,33 @@
+package srnp;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Byte offsets of the fields of the native {@code PeisTuple} struct as laid out by
+ * the srnp_wrapper library (and as mapped by {@link PeisTuple}).  Used by the
+ * binding backends that read the struct without going through JNA's
+ * {@link com.sun.jna.Structure} reflection.
+ */
+final class PeisTupleLayout {
+
+	static final int OWNER = 0;
+
+	static final int KEY = align(OWNER + 4, Pointer.SIZE);
+
+	static final int DATA = KEY + Pointer.SIZE;
+
+	static final int DATALEN = DATA + Pointer.SIZE;
+
+	static final int TS_WRITE = DATALEN + 4;
+
+	static final int TS_EXPIRE = TS_WRITE + 8;
+
+	static final int SIZE = align(TS_EXPIRE + 8, Pointer.SIZE);
+
+	private PeisTupleLayout() {
+	}
+
+	private static int align(int offset, int alignment) {
+		return (offset + alignment - 1) & -alignment;
+	}
+}
@@ -0,0 +1,260 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Flyweight reader of a native {@code PeisTuple} struct.  Unlike {@link PeisTuple}, which JNA
+ * fills by reflection (allocating arrays and references per instance), a view reads the
+ * fields straight from the struct at fixed offsets when asked, and is reused: each thread
+ * has one (see {@link #local()}) that is re-pointed at every tuple it reads.  Views are
+ * obtained from {@link PeisJavaMT#peisjava_getTupleView(int, String)} and passed to
+ * {@link TupleViewCallback}s; neither path allocates per tuple.  Callbacks get a separate
+ * per-thread view, so a callback may call {@code peisjava_getTupleView} without its own view
+ * being re-pointed (and a nested callback on the same thread gets a new view).  A view is only
+ * valid as long as the struct it points to.
+ */
+public final class PeisTupleView {
+
+	private static final ThreadLocal<PeisTupleView> LOCAL = new ThreadLocal<PeisTupleView>() {
+		@Override
+		protected PeisTupleView initialValue() {
+			return new PeisTupleView();
+		}
+	};
+
+	private static final ThreadLocal<PeisTupleView> CALLBACK = new ThreadLocal<PeisTupleView>() {
+		@Override
+		protected PeisTupleView initialValue() {
+			return new PeisTupleView();
+		}
+	};
+
+	private Pointer tuple = null;
+
+	/**
+	 * Whether this view is the callback view of its thread and a callback is reading it.
+	 */
+	private boolean inCallback = false;
+
+	/**
+	 * Last data pointer read, reused while the data address does not change.
+	 */
+	private Pointer data = null;
+	private long dataAddress = 0L;
+
+	/**
+	 * Create an unbound view.  Prefer the per-thread instance from {@link #local()}.
+	 */
+	public PeisTupleView() {
+	}
+
+	/**
+	 * @return The view of the calling thread.
+	 */
+	public static PeisTupleView local() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Get a view for a {@link TupleViewCallback}: the callback view of the calling thread, or a
+	 * new view if that one is in use by an enclosing callback.  Release it with
+	 * {@link #releaseCallbackView()} when the callback returns.
+	 * @return A view not used by {@link #local()} nor by an enclosing callback.
+	 */
+	static PeisTupleView acquireCallbackView() {
+		final PeisTupleView view = CALLBACK.get();
+		if (view.inCallback) {
+			return new PeisTupleView();
+		}
+		view.inCallback = true;
+		return view;
+	}
+
+	/**
+	 * Mark a view from {@link #acquireCallbackView()} as no longer read.
+	 */
+	void releaseCallbackView() {
+		this.inCallback = false;
+		this.tuple = null;
+	}
+
+	/**
+	 * Point this view at a native tuple.
+	 * @param tuple Pointer to a {@code PeisTuple} struct, or {@code null}.
+	 * @return This view.
+	 */
+	public PeisTupleView wrap(Pointer tuple) {
+		this.tuple = tuple;
+		return this;
+	}
+
+	/**
+	 * @return The struct this view points to, {@code null} if unbound.
+	 */
+	public Pointer getPointer() {
+		return tuple;
+	}
+
+	private long address(int offset) {
+		return Pointer.SIZE == 8 ? tuple.getLong(offset) : tuple.getInt(offset) & 0xffffffffL;
+	}
+
+	private Pointer data() {
+		final long address = address(PeisTupleLayout.DATA);
+		if (address == 0L) {
+			return null;
+		}
+		if (address != dataAddress) {
+			data = tuple.getPointer(PeisTupleLayout.DATA);
+			dataAddress = address;
+		}
+		return data;
+	}
+
+	/**
+	 * @return The owner of the tuple.
+	 */
+	public int getOwner() {
+		return tuple.getInt(PeisTupleLayout.OWNER);
+	}
+
+	/**
+	 * Get the key of the tuple (allocates the String).
+	 * @return The key of the tuple.
+	 */
+	public String getKey() {
+		final Pointer key = tuple.getPointer(PeisTupleLayout.KEY);
+		return key == null ? null : key.getString(0);
+	}
+
+	/**
+	 * @return The length of the data of the tuple.
+	 */
+	public int getDatalen() {
+		return tuple.getInt(PeisTupleLayout.DATALEN);
+	}
+
+	/**
+	 * @return Seconds part of the write time stamp.
+	 */
+	public int getTsWriteSec() {
+		return tuple.getInt(PeisTupleLayout.TS_WRITE);
+	}
+
+	/**
+	 * @return Microseconds part of the write time stamp.
+	 */
+	public int getTsWriteUsec() {
+		return tuple.getInt(PeisTupleLayout.TS_WRITE + 4);
+	}
+
+	/**
+	 * @return Seconds part of the expire time stamp.
+	 */
+	public int getTsExpireSec() {
+		return tuple.getInt(PeisTupleLayout.TS_EXPIRE);
+	}
+
+	/**
+	 * @return Microseconds part of the expire time stamp.
+	 */
+	public int getTsExpireUsec() {
+		return tuple.getInt(PeisTupleLayout.TS_EXPIRE + 4);
+	}
+
+	/**
+	 * @return The write time stamp in microseconds since the epoch, or -1 if undefined.
+	 */
+	public long getTsWriteMicros() {
+		return PeisJavaUtilities.getEpochMicrosFromPeisDate(getTsWriteSec(), getTsWriteUsec());
+	}
+
+	/**
+	 * @return The expire time stamp in microseconds since the epoch, zero for never, or -1 if undefined.
+	 */
+	public long getTsExpireMicros() {
+		return PeisJavaUtilities.getEpochMicrosFromPeisDate(getTsExpireSec(), getTsExpireUsec());
+	}
+
+	/**
+	 * @param nowMicros The current time in microseconds since the epoch.
+	 * @return The age of the tuple in microseconds, {@link Long#MAX_VALUE} if the write time stamp is undefined.
+	 */
+	public long ageMicros(long nowMicros) {
+		return PeisJavaUtilities.ageMicros(getTsWriteMicros(), nowMicros);
+	}
+
+	/**
+	 * @param nowMicros The current time in microseconds since the epoch.
+	 * @return {@code true} iff the tuple has an expire time stamp and it is not after {@code nowMicros}.
+	 */
+	public boolean isExpired(long nowMicros) {
+		return PeisJavaUtilities.isExpired(getTsExpireMicros(), nowMicros);
+	}
+
+	/**
+	 * @return Pointer to the data of the tuple, {@code null} if there is none.
+	 */
+	public Pointer getData() {
+		return data();
+	}
+
+	/**
+	 * Get one byte of the data.
+	 * @param index The offset of the byte.
+	 * @return The byte.
+	 */
+	public byte getByte(int index) {
+		return data().getByte(index);
+	}
+
+	/**
+	 * Copy the data into a caller-provided (reusable) array.
+	 * @param dst The array to copy to.
+	 * @param offset The offset in the array.
+	 * @return The number of bytes copied: the smaller of the data length and the room in the array.
+	 */
+	public int readData(byte[] dst, int offset) {
+		final Pointer d = data();
+		if (d == null) {
+			return 0;
+		}
+		final int len = Math.min(getDatalen(), dst.length - offset);
+		d.read(0, dst, offset, len);
+		return len;
+	}
+
+	/**
+	 * @return The data decoded as a UTF-8 String, {@code null} if there is none.
+	 */
+	public String getStringData() {
+		final Pointer d = data();
+		return d == null ? null : StringCodec.decode(d, getDatalen());
+	}
+
+	/**
+	 * @return A read-only direct buffer over the data, {@code null} if there is none.  Data
+	 * compressed by the writer is inflated into a new heap buffer instead, which is not
+	 * zero-copy but stays valid after the view.
+	 */
+	public ByteBuffer getByteBuffer() {
+		final Pointer d = data();
+		if (d == null) {
+			return null;
+		}
+		final byte[] inflated = TupleCompression.decode(d, getDatalen());
+		if (inflated != null) {
+			return ByteBuffer.wrap(inflated).asReadOnlyBuffer();
+		}
+		return d.getByteBuffer(0, getDatalen()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return A {@link PeisTuple} copy of the viewed tuple, for keeping it beyond the validity of the view.
+	 */
+	public PeisTuple toTuple() {
+		return new PeisTuple(tuple).copy();
+	}
+}
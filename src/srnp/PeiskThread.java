@@ -4,12 +4,15 @@ import java.util.HashMap;
 
 import srnp.PeisJavaInterface.PeisCallbackHandle;
 import srnp.PeisJavaInterface.PeisTupleCallback;
+import srnp.PeisJavaInterface.PeisTupleRefCallback;
 
 
 class PeiskThread {
 	
 	//private HashMap<PeisTupleCallback, PeisCallbackHandle> callbacks = new HashMap<PeisTupleCallback, PeisCallbackHandle>();
 	
+	private final CallbackRegistry registry = new CallbackRegistry();
+	
 	private class Callback {
 		public final int owner;
 		public final String key;
@@ -32,12 +35,14 @@ class PeiskThread {
 		if(coi == null) {
 			throw new IllegalArgumentException("PeisTupleCallback is null");
 		}	
-		Callback cb = new Callback(owner,key,coi);		
-		double hndl = PeisJavaMT.INSTANCE.peiskmt_registerTupleCallback(cb.owner, cb.key, null, cb.tupleCallback);
-		System.out.println("REGISTERED (M) " + cb);
-		//callbacks.put(cb.tupleCallback, hndl);
-		
-		return hndl; //coi;
+		return registry.add(owner, key, coi);
+	}
+	
+	protected double registerViewCallback(String key, int owner, PeisTupleRefCallback coi) {
+		if(coi == null) {
+			throw new IllegalArgumentException("PeisTupleRefCallback is null");
+		}
+		return registry.addRef(owner, key, coi);
 	}
 	
 	protected void registerMetaCallback(String key, int owner, PeisTupleCallback coi) {
@@ -56,7 +61,10 @@ class PeiskThread {
 		}
 		
 		//PeisCallbackHandle hndl = callbacks.get(tupleCallback);
-		PeisJavaMT.INSTANCE.peiskmt_unregisterTupleCallback(tupleCallback);
+		if(!registry.remove(tupleCallback) && tupleCallback < CallbackRegistry.FIRST_HANDLE) {
+			//Registered directly with the kernel (registry handles are never kernel handles)
+			PeisJavaMT.INSTANCE.peiskmt_unregisterTupleCallback(tupleCallback);
+		}
 	}
 }
 
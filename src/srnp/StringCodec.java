@@ -0,0 +1,168 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * UTF-8 codec for String tuples.  Values are stored NUL-terminated, and {@code datalen}
+ * includes the terminator (as with the kernel's {@code peisk_setStringTuple}).  Encoding
+ * writes into a per-thread scratch array, copied once into a buffer from the
+ * {@link NativeBufferPool}; decoding reads exactly {@code datalen} bytes instead of
+ * scanning native memory for the terminator.
+ * Unpaired surrogates are encoded as {@code '?'}.
+ */
+final class StringCodec {
+
+	/**
+	 * Whether {@link PeisTuple#getStringData()} keeps the decoded String, set with the
+	 * system property {@code srnp.stringCache} (default {@code true}).
+	 */
+	static final boolean CACHE = !"false".equalsIgnoreCase(System.getProperty("srnp.stringCache"));
+
+	/**
+	 * Largest scratch array kept per thread; longer values use a temporary array.
+	 */
+	private static final int MAX_SCRATCH = 64 * 1024;
+
+	private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[256];
+		}
+	};
+
+	private StringCodec() {
+	}
+
+	private static byte[] scratch(int size) {
+		byte[] buf = SCRATCH.get();
+		if (buf.length >= size) {
+			return buf;
+		}
+		buf = new byte[size];
+		if (size <= MAX_SCRATCH) {
+			SCRATCH.set(buf);
+		}
+		return buf;
+	}
+
+	/**
+	 * Get the number of bytes of the UTF-8 encoding of a String, without the terminator.
+	 * @param s The String.
+	 * @return The encoded length.
+	 */
+	static int encodedLength(String s) {
+		final int n = s.length();
+		int len = n;
+		for (int i = 0; i < n; i++) {
+			final char c = s.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				len += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				len += 2;
+				i++;
+			} else if (!Character.isSurrogate(c)) {
+				len += 2;
+			}
+		}
+		return len;
+	}
+
+	/**
+	 * Encode a String into a NUL-terminated native buffer.
+	 * @param s The String.
+	 * @param length The value of {@link #encodedLength(String)} for {@code s}.
+	 * @return A buffer from {@link NativeBufferPool#shared()} holding {@code length + 1}
+	 * bytes, to be released by the caller.
+	 */
+	static Memory encode(String s, int length) {
+		final byte[] buf = scratch(length + 1);
+		if (length == s.length()) {
+			//ASCII, apart from unpaired surrogates
+			for (int i = 0; i < length; i++) {
+				final char c = s.charAt(i);
+				buf[i] = c < 0x80 ? (byte) c : (byte) '?';
+			}
+		} else {
+			encodeUtf8(s, buf);
+		}
+		buf[length] = 0;
+		final Memory m = NativeBufferPool.shared().acquire(length + 1);
+		m.write(0, buf, 0, length + 1);
+		return m;
+	}
+
+	private static void encodeUtf8(String s, byte[] buf) {
+		final int n = s.length();
+		int j = 0;
+		for (int i = 0; i < n; i++) {
+			final char c = s.charAt(i);
+			if (c < 0x80) {
+				buf[j++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[j++] = (byte) (0xc0 | (c >> 6));
+				buf[j++] = (byte) (0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, s.charAt(++i));
+				buf[j++] = (byte) (0xf0 | (cp >> 18));
+				buf[j++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				buf[j++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				buf[j++] = (byte) (0x80 | (cp & 0x3f));
+			} else if (Character.isSurrogate(c)) {
+				buf[j++] = (byte) '?';
+			} else {
+				buf[j++] = (byte) (0xe0 | (c >> 12));
+				buf[j++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				buf[j++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	/**
+	 * Write the UTF-8 encoding of a String (without terminator) into a buffer.
+	 * @param out The buffer.
+	 * @param s The String.
+	 * @param length The value of {@link #encodedLength(String)} for {@code s}.
+	 */
+	static void put(ByteBuffer out, String s, int length) {
+		final byte[] buf = scratch(length);
+		encodeUtf8(s, buf);
+		out.put(buf, 0, length);
+	}
+
+	/**
+	 * Read a UTF-8 String from a buffer.
+	 * @param in The buffer.
+	 * @param length The number of bytes to read.
+	 * @return The String.
+	 */
+	static String get(ByteBuffer in, int length) {
+		final byte[] buf = scratch(length);
+		in.get(buf, 0, length);
+		return new String(buf, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decode the String held by a tuple.  The value ends at the first NUL or after
+	 * {@code datalen} bytes, whichever comes first.
+	 * @param data The data of the tuple.
+	 * @param datalen The length of the data, or a negative value if unknown.
+	 * @return The decoded String.
+	 */
+	static String decode(Pointer data, int datalen) {
+		final int len = datalen >= 0 ? datalen : (int) data.indexOf(0, (byte) 0);
+		final byte[] buf = scratch(len);
+		data.read(0, buf, 0, len);
+		int n = 0;
+		while (n < len && buf[n] != 0) {
+			n++;
+		}
+		return new String(buf, 0, n, StandardCharsets.UTF_8);
+	}
+}
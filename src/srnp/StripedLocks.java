@@ -0,0 +1,36 @@
+package srnp;
+
+/**
+ * A fixed set of monitors indexed by (owner, key), so that operations on the same tuple are
+ * serialized while operations on unrelated tuples proceed in parallel.
+ */
+final class StripedLocks {
+
+	private final Object[] stripes;
+
+	private final int mask;
+
+	/**
+	 * @param stripes The number of monitors, rounded up to a power of two.
+	 */
+	StripedLocks(int stripes) {
+		final int n = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		this.stripes = new Object[n];
+		for(int i = 0; i < n; i++) {
+			this.stripes[i] = new Object();
+		}
+		this.mask = n - 1;
+	}
+
+	private Object stripe(int hash) {
+		return stripes[(hash ^ (hash >>> 16)) & mask];
+	}
+
+	Object lockFor(int owner, String key) {
+		return stripe(31 * owner + (key == null ? 0 : key.hashCode()));
+	}
+
+	Object lockFor(Object o) {
+		return stripe(System.identityHashCode(o));
+	}
+}
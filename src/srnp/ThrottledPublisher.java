@@ -0,0 +1,185 @@
+package srnp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accepts tuple writes at any rate and sets them in local tuplespace at most once per
+ * interval per key, keeping only the newest value of each key in between.  Producers never
+ * call into the kernel: the first write of a key after a quiet period is set as soon as
+ * possible, and later writes within the interval replace each other until it elapses.  All
+ * writes are set from one daemon scheduler thread per publisher.  Close the publisher to set
+ * the values still pending and stop the thread.
+ */
+public class ThrottledPublisher implements AutoCloseable {
+
+	private static final class Slot {
+		final String key;
+		final AtomicReference<Runnable> pending = new AtomicReference<Runnable>();
+		final AtomicLong suppressed = new AtomicLong();
+		/**
+		 * Earliest time of the next set, in {@link System#nanoTime()}.
+		 */
+		volatile long nextAllowed = System.nanoTime();
+
+		Slot(String key) {
+			this.key = key;
+		}
+	}
+
+	private final long intervalNanos;
+	private final ScheduledThreadPoolExecutor scheduler;
+	private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<String, Slot>();
+
+	private final LongAdder writes = new LongAdder();
+	private final LongAdder suppressed = new LongAdder();
+	private final LongAdder flushed = new LongAdder();
+
+	private volatile boolean closed = false;
+
+	/**
+	 * Create a publisher setting each key at most {@code maxRate} times per second.
+	 * @param maxRate The maximum frequency of sets per key, in Hz.
+	 */
+	public ThrottledPublisher(double maxRate) {
+		this((long) (1e9 / maxRate), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Create a publisher setting each key at most once per interval.
+	 * @param minInterval The minimum time between two sets of a key.
+	 * @param unit The unit of {@code minInterval}.
+	 */
+	public ThrottledPublisher(long minInterval, TimeUnit unit) {
+		if (minInterval <= 0) {
+			throw new IllegalArgumentException("Interval must be positive");
+		}
+		this.intervalNanos = unit.toNanos(minInterval);
+		this.scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+			final Thread t = new Thread(r, "srnp-throttle");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	private void offer(String key, Runnable write) {
+		if (closed) {
+			throw new IllegalStateException("ThrottledPublisher is closed");
+		}
+		writes.increment();
+		final Slot slot = slots.computeIfAbsent(key, Slot::new);
+		if (slot.pending.getAndSet(write) != null) {
+			//Replaced a value that was not set yet, its flush is already scheduled
+			suppressed.increment();
+			slot.suppressed.incrementAndGet();
+			return;
+		}
+		final long delay = slot.nextAllowed - System.nanoTime();
+		try {
+			scheduler.schedule(() -> flush(slot), Math.max(0L, delay), TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			throw new IllegalStateException("ThrottledPublisher is closed");
+		}
+	}
+
+	private void flush(Slot slot) {
+		slot.nextAllowed = System.nanoTime() + intervalNanos;
+		final Runnable write = slot.pending.getAndSet(null);
+		if (write == null) {
+			return;
+		}
+		try {
+			write.run();
+			flushed.increment();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Set a tuple, throttled.  The value is copied.
+	 * @param key The key of the tuple to set.
+	 * @param value The data to write into the tuple.
+	 * @param mimetype The mimetype of the tuple.
+	 */
+	public void setTuple(String key, byte[] value, String mimetype) {
+		final byte[] copy = value.clone();
+		offer(key, () -> PeisJavaMT.peisjava_setTuple(key, copy, mimetype));
+	}
+
+	/**
+	 * Set a String tuple, throttled.
+	 * @param key The key of the tuple to set.
+	 * @param value The value to set.
+	 */
+	public void setStringTuple(String key, String value) {
+		offer(key, () -> PeisJavaMT.peisjava_setStringTuple(key, value));
+	}
+
+	/**
+	 * Set a tuple encoded with the {@link TupleCodec} of its type, throttled.  The value must
+	 * not be modified after this call.
+	 * @param key The key of the tuple to set.
+	 * @param value The value to set.
+	 */
+	public <T> void setTuple(String key, T value) {
+		offer(key, () -> PeisJavaMT.peisjava_setTuple(key, value));
+	}
+
+	/**
+	 * @return The number of writes accepted.
+	 */
+	public long getWriteCount() {
+		return writes.sum();
+	}
+
+	/**
+	 * @return The number of writes replaced by a newer value before they were set.
+	 */
+	public long getSuppressedCount() {
+		return suppressed.sum();
+	}
+
+	/**
+	 * @param key The key of a tuple.
+	 * @return The number of writes of the tuple replaced by a newer value before they were set.
+	 */
+	public long getSuppressedCount(String key) {
+		final Slot slot = slots.get(key);
+		return slot == null ? 0L : slot.suppressed.get();
+	}
+
+	/**
+	 * @return The number of tuples set in the kernel.
+	 */
+	public long getFlushedCount() {
+		return flushed.sum();
+	}
+
+	/**
+	 * Set the pending values right away and stop the scheduler thread.  Later writes throw
+	 * {@link IllegalStateException}.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		scheduler.shutdownNow();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (Slot slot : slots.values()) {
+			flush(slot);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * A set of tuples to be published in one call with {@link PeisJavaMT#peisjava_setTuples(TupleBatch)},
+ * e.g., the full state frame of a robot.  The entries are marshalled into one contiguous
+ * native buffer handed to {@link PeisJavaInterface#peiskmt_setTuples(int, com.sun.jna.Pointer, int)},
+ * laid out as a sequence of records in native byte order:
+ * <pre>
+ * int keylen;   char key[keylen];     (NUL-terminated, keylen includes the NUL)
+ * int mimelen;  char mime[mimelen];   (NUL-terminated, mimelen is 0 for no mimetype)
+ * int datalen;  char data[datalen];
+ * </pre>
+ */
+public final class TupleBatch {
+
+	private final ArrayList<byte[]> keys = new ArrayList<byte[]>();
+	private final ArrayList<byte[]> mimetypes = new ArrayList<byte[]>();
+	private final ArrayList<byte[]> values = new ArrayList<byte[]>();
+
+	private int encodedLength = 0;
+
+	private static byte[] cString(String s) {
+		if (s == null) {
+			return null;
+		}
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		final byte[] c = new byte[bytes.length + 1];
+		System.arraycopy(bytes, 0, c, 0, bytes.length);
+		return c;
+	}
+
+	/**
+	 * Add a tuple to the batch.
+	 * @param key The key of the tuple to set.
+	 * @param value The data to write into the tuple.
+	 * @param mimetype The mimetype of the tuple.
+	 * @return This batch.
+	 */
+	public TupleBatch add(String key, byte[] value, String mimetype) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException("Key and value must be given");
+		}
+		final byte[] k = cString(key);
+		final byte[] m = cString(mimetype);
+		keys.add(k);
+		mimetypes.add(m);
+		values.add(value);
+		encodedLength += 12 + k.length + (m == null ? 0 : m.length) + value.length;
+		return this;
+	}
+
+	/**
+	 * Add a String tuple to the batch (stored NUL-terminated, as by {@link PeisTuple#setStringData(String)}).
+	 * @param key The key of the tuple to set.
+	 * @param value The value to set.  A String value of "nil" is set if this parameter is {@code null}.
+	 * @return This batch.
+	 */
+	public TupleBatch addString(String key, String value) {
+		return add(key, cString(value == null ? "nil" : value), "text/plain");
+	}
+
+	/**
+	 * @return The number of tuples in the batch.
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * Remove all tuples from the batch, so that it can be reused for the next frame.
+	 */
+	public void clear() {
+		keys.clear();
+		mimetypes.clear();
+		values.clear();
+		encodedLength = 0;
+	}
+
+	int encodedLength() {
+		return encodedLength;
+	}
+
+	String getKey(int i) {
+		final byte[] k = keys.get(i);
+		return new String(k, 0, k.length - 1, StandardCharsets.UTF_8);
+	}
+
+	String getMimetype(int i) {
+		final byte[] m = mimetypes.get(i);
+		return m == null ? null : new String(m, 0, m.length - 1, StandardCharsets.UTF_8);
+	}
+
+	byte[] getValue(int i) {
+		return values.get(i);
+	}
+
+	/**
+	 * Write the records of the batch into the given buffer.
+	 * @param out A buffer with at least {@link #encodedLength()} bytes remaining.
+	 */
+	void encode(ByteBuffer out) {
+		out.order(ByteOrder.nativeOrder());
+		for (int i = 0; i < keys.size(); i++) {
+			final byte[] k = keys.get(i);
+			final byte[] m = mimetypes.get(i);
+			final byte[] v = values.get(i);
+			out.putInt(k.length).put(k);
+			if (m == null) {
+				out.putInt(0);
+			} else {
+				out.putInt(m.length).put(m);
+			}
+			out.putInt(v.length).put(v);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package srnp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import srnp.PeisJavaInterface.PeisSubscriberHandle;
+
+/**
+ * Opt-in, read-through cache for {@link PeisJavaMT#peisjava_getTuple(int, String)},
+ * {@link PeisJavaMT#peisjava_getStringTuple(int, String)} and
+ * {@link PeisJavaMT#peisjava_getByteTuple(int, String)}, enabled with
+ * {@link PeisJavaMT#peisjava_enableTupleCache(int)}.  The first read of a tuple registers
+ * a tuple callback (and a subscription, for remote tuples) which keeps a detached copy of
+ * the tuple up to date; later reads are served from the copy without calling into the
+ * kernel.  Hits take no lock: the entries are kept in a {@link ConcurrentHashMap} and each
+ * hit only stamps its entry with the time of the read.  The cache holds a bounded number of
+ * tuples and, on a miss that exceeds the capacity, evicts approximately the least recently
+ * read one (the oldest of {@value #SAMPLE} entries sampled round-robin), cancelling its
+ * callback.  Reads with a wildcard owner are not cached.
+ */
+public final class TupleCache {
+
+	/**
+	 * Number of entries compared to choose one to evict.
+	 */
+	private static final int SAMPLE = 8;
+
+	private final int capacity;
+
+	private final ConcurrentHashMap<TupleKey, Entry> entries = new ConcurrentHashMap<TupleKey, Entry>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Position of the eviction sampling in {@link #entries}, guarded by itself.
+	 */
+	private final Object evictionLock = new Object();
+	private Iterator<Entry> hand = null;
+
+	private final class Entry extends CallbackObject {
+		final TupleKey key;
+		double callback = 0.0;
+		PeisSubscriberHandle subscription = null;
+		/**
+		 * The tuple and its decoded String, replaced together under the entry's monitor.
+		 */
+		volatile PeisTuple value = null;
+		String string = null;
+		/**
+		 * Time of the last read in {@link System#nanoTime()}.
+		 */
+		volatile long lastAccess = System.nanoTime();
+
+		Entry(TupleKey key) {
+			this.key = key;
+		}
+
+		@Override
+		public void callback(PeisTuple tuple) {
+			update(this, tuple.copy());
+		}
+	}
+
+	TupleCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Cache capacity must be positive");
+		}
+		this.capacity = capacity;
+	}
+
+	private static boolean isNewer(PeisTuple a, PeisTuple b) {
+		if (b == null) {
+			return true;
+		}
+		return a.ts_write[0] > b.ts_write[0] || (a.ts_write[0] == b.ts_write[0] && a.ts_write[1] >= b.ts_write[1]);
+	}
+
+	private static void update(Entry e, PeisTuple tuple) {
+		synchronized (e) {
+			if (isNewer(tuple, e.value)) {
+				e.value = tuple;
+				e.string = null;
+			}
+		}
+	}
+
+	/**
+	 * Get the entry of a tuple, loading it on a miss.
+	 */
+	private Entry entry(int owner, String key) {
+		final TupleKey k = new TupleKey(owner, key);
+		Entry e = entries.get(k);
+		if (e != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+			e = load(k);
+			evict();
+		}
+		e.lastAccess = System.nanoTime();
+		return e;
+	}
+
+	private Entry load(TupleKey k) {
+		final Entry e = new Entry(k);
+		//Register first so that no update is lost between the read and the registration
+		e.callback = PeisJavaMT.peisjava_registerTupleCallback(k.owner, k.key, e);
+		if (k.owner != PeisJavaMT.peisjava_peisid()) {
+			e.subscription = PeisJavaMT.INSTANCE.peiskmt_subscribe(k.owner, k.key);
+		}
+		final PeisTuple tuple = PeisJavaMT.INSTANCE.peiskmt_getTuple(k.owner, k.key, 0);
+		if (tuple != null) {
+			update(e, tuple.copy());
+			PeisJavaMT.peisjava_freeTuple(tuple);
+		}
+		final Entry raced = entries.putIfAbsent(k, e);
+		if (raced != null) {
+			cancel(e);
+			return raced;
+		}
+		return e;
+	}
+
+	/**
+	 * Evict entries while the cache exceeds its capacity, each the least recently read of a
+	 * sample.  Callbacks are cancelled outside of the eviction lock.
+	 */
+	private void evict() {
+		if (entries.size() <= capacity) {
+			return;
+		}
+		final List<Entry> cancel = new ArrayList<Entry>();
+		synchronized (evictionLock) {
+			while (entries.size() > capacity) {
+				Entry victim = null;
+				for (int i = 0; i < SAMPLE; i++) {
+					if (hand == null || !hand.hasNext()) {
+						hand = entries.values().iterator();
+						if (!hand.hasNext()) {
+							break;
+						}
+					}
+					final Entry e = hand.next();
+					if (victim == null || e.lastAccess - victim.lastAccess < 0) {
+						victim = e;
+					}
+				}
+				if (victim == null) {
+					break;
+				}
+				if (entries.remove(victim.key, victim)) {
+					evictions.increment();
+					cancel.add(victim);
+				}
+			}
+		}
+		for (Entry e : cancel) {
+			cancel(e);
+		}
+	}
+
+	private static void cancel(Entry e) {
+		if (e.callback != 0.0) {
+			PeisJavaMT.peisjava_unregisterTupleCallback(e.callback);
+		}
+		if (e.subscription != null) {
+			PeisJavaMT.INSTANCE.peiskmt_unsubscribe(e.subscription);
+		}
+	}
+
+	PeisTuple getTuple(int owner, String key) {
+		final PeisTuple value = entry(owner, key).value;
+		return value == null ? null : value.share();
+	}
+
+	String getString(int owner, String key) {
+		final Entry e = entry(owner, key);
+		synchronized (e) {
+			if (e.value == null) {
+				return null;
+			}
+			if (e.string == null) {
+				e.string = e.value.getStringData();
+			}
+			return e.string;
+		}
+	}
+
+	byte[] getBytes(int owner, String key) {
+		final PeisTuple value = entry(owner, key).value;
+		return value == null ? null : value.getByteData();
+	}
+
+	/**
+	 * Drop all entries and cancel their callbacks.
+	 */
+	void clear() {
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			final Entry e = it.next();
+			if (entries.remove(e.key, e)) {
+				cancel(e);
+			}
+		}
+	}
+
+	/**
+	 * @return The maximum number of cached tuples.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The number of cached tuples.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The number of reads served from the cache.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return The number of reads that had to load the tuple from the kernel.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return The number of tuples evicted to respect the capacity.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "TupleCache <size=" + entries.size() + "/" + capacity + ", hits=" + hits.sum() + ", misses=" + misses.sum()
+				+ ", evictions=" + evictions.sum() + ">";
+	}
+}
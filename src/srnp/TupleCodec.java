@@ -0,0 +1,40 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts values of one Java type to and from the data of tuples with a given mimetype.
+ * Codecs are looked up in {@link TupleCodecs}, which provides compact binary codecs for
+ * primitives, {@code double[]}/{@code float[]} arrays and simple records, and are used by
+ * {@link PeisJavaMT#peisjava_setTuple(String, Object)} and
+ * {@link PeisJavaMT#peisjava_getTuple(int, String, Class)}.  The buffers handed to a codec
+ * are in little-endian byte order and are backed by native memory, so no intermediate
+ * {@code byte[]} is needed.
+ * @param <T> The type of the values.
+ */
+public interface TupleCodec<T> extends TupleDataReader<T> {
+
+	/**
+	 * @return The mimetype of the tuples written by this codec.
+	 */
+	String getMimetype();
+
+	/**
+	 * @return The type of the values.
+	 */
+	Class<T> getType();
+
+	/**
+	 * Get the number of bytes needed to encode a value.
+	 * @param value The value.
+	 * @return The encoded length.
+	 */
+	int encodedLength(T value);
+
+	/**
+	 * Encode a value.
+	 * @param value The value.
+	 * @param out A buffer with exactly {@link #encodedLength(Object)} bytes remaining.
+	 */
+	void write(T value, ByteBuffer out);
+}
@@ -0,0 +1,466 @@
+package srnp;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link TupleCodec}s, keyed by value type and by mimetype.  The built-in
+ * codecs write little-endian binary values:
+ * <table summary="Built-in codecs">
+ * <tr><td>{@code Integer}, {@code Long}</td><td>{@value #INT32}, {@value #INT64}</td></tr>
+ * <tr><td>{@code Float}, {@code Double}</td><td>{@value #FLOAT32}, {@value #FLOAT64}</td></tr>
+ * <tr><td>{@code Boolean}</td><td>{@value #BOOL} (one byte)</td></tr>
+ * <tr><td>{@code float[]}, {@code double[]}</td><td>{@value #FLOAT32_ARRAY}, {@value #FLOAT64_ARRAY}
+ * (the values only, the length follows from the tuple size)</td></tr>
+ * <tr><td>{@code String}</td><td>{@code text/plain} (NUL-terminated UTF-8, as {@link PeisTuple#setStringData(String)})</td></tr>
+ * <tr><td>{@code byte[]}</td><td>{@code application/octet-stream} (unchanged)</td></tr>
+ * </table>
+ * Records whose components are primitives, Strings or {@code byte[]}/{@code float[]}/{@code double[]}
+ * get a codec on first use, with mimetype {@value #RECORD}{@code <class name>}.  Components
+ * are written in declaration order; Strings and arrays are prefixed with their length as an
+ * int32 ({@code -1} for {@code null}).  Records are looked up reflectively, so that this
+ * class also builds and runs on JDKs before 16, where no type is a record.
+ */
+public final class TupleCodecs {
+
+	public static final String INT32 = "application/x-srnp-int32";
+	public static final String INT64 = "application/x-srnp-int64";
+	public static final String FLOAT32 = "application/x-srnp-float32";
+	public static final String FLOAT64 = "application/x-srnp-float64";
+	public static final String BOOL = "application/x-srnp-bool";
+	public static final String FLOAT32_ARRAY = "application/x-srnp-float32-array";
+	public static final String FLOAT64_ARRAY = "application/x-srnp-float64-array";
+	public static final String RECORD = "application/x-srnp-record;type=";
+
+	/**
+	 * {@code Class.getRecordComponents()}, {@code RecordComponent.getType()} and
+	 * {@code RecordComponent.getAccessor()}, {@code null} before JDK 16.
+	 */
+	private static final Method GET_RECORD_COMPONENTS;
+	private static final Method COMPONENT_TYPE;
+	private static final Method COMPONENT_ACCESSOR;
+
+	static {
+		Method components = null;
+		Method componentType = null;
+		Method accessor = null;
+		try {
+			components = Class.class.getMethod("getRecordComponents");
+			final Class<?> component = Class.forName("java.lang.reflect.RecordComponent");
+			componentType = component.getMethod("getType");
+			accessor = component.getMethod("getAccessor");
+		} catch (ReflectiveOperationException e) {
+			components = null;
+		}
+		GET_RECORD_COMPONENTS = components;
+		COMPONENT_TYPE = componentType;
+		COMPONENT_ACCESSOR = accessor;
+	}
+
+	private static final ConcurrentHashMap<Class<?>, TupleCodec<?>> byType = new ConcurrentHashMap<Class<?>, TupleCodec<?>>();
+	private static final ConcurrentHashMap<String, TupleCodec<?>> byMimetype = new ConcurrentHashMap<String, TupleCodec<?>>();
+
+	private TupleCodecs() {
+	}
+
+	/**
+	 * Base of the codecs of fixed-size values.
+	 */
+	private abstract static class FixedCodec<T> implements TupleCodec<T> {
+		private final Class<T> type;
+		private final String mimetype;
+		private final int size;
+
+		FixedCodec(Class<T> type, String mimetype, int size) {
+			this.type = type;
+			this.mimetype = mimetype;
+			this.size = size;
+		}
+
+		@Override
+		public String getMimetype() {
+			return mimetype;
+		}
+
+		@Override
+		public Class<T> getType() {
+			return type;
+		}
+
+		@Override
+		public int encodedLength(T value) {
+			return size;
+		}
+	}
+
+	static {
+		register(new FixedCodec<Integer>(Integer.class, INT32, 4) {
+			public void write(Integer value, ByteBuffer out) {
+				out.putInt(value);
+			}
+
+			public Integer read(ByteBuffer data) {
+				return data.getInt();
+			}
+		});
+		register(new FixedCodec<Long>(Long.class, INT64, 8) {
+			public void write(Long value, ByteBuffer out) {
+				out.putLong(value);
+			}
+
+			public Long read(ByteBuffer data) {
+				return data.getLong();
+			}
+		});
+		register(new FixedCodec<Float>(Float.class, FLOAT32, 4) {
+			public void write(Float value, ByteBuffer out) {
+				out.putFloat(value);
+			}
+
+			public Float read(ByteBuffer data) {
+				return data.getFloat();
+			}
+		});
+		register(new FixedCodec<Double>(Double.class, FLOAT64, 8) {
+			public void write(Double value, ByteBuffer out) {
+				out.putDouble(value);
+			}
+
+			public Double read(ByteBuffer data) {
+				return data.getDouble();
+			}
+		});
+		register(new FixedCodec<Boolean>(Boolean.class, BOOL, 1) {
+			public void write(Boolean value, ByteBuffer out) {
+				out.put(value ? (byte) 1 : (byte) 0);
+			}
+
+			public Boolean read(ByteBuffer data) {
+				return data.get() != 0;
+			}
+		});
+		register(new FixedCodec<double[]>(double[].class, FLOAT64_ARRAY, 0) {
+			@Override
+			public int encodedLength(double[] value) {
+				return value.length * 8;
+			}
+
+			public void write(double[] value, ByteBuffer out) {
+				out.asDoubleBuffer().put(value);
+			}
+
+			public double[] read(ByteBuffer data) {
+				final double[] value = new double[data.remaining() / 8];
+				data.asDoubleBuffer().get(value);
+				return value;
+			}
+		});
+		register(new FixedCodec<float[]>(float[].class, FLOAT32_ARRAY, 0) {
+			@Override
+			public int encodedLength(float[] value) {
+				return value.length * 4;
+			}
+
+			public void write(float[] value, ByteBuffer out) {
+				out.asFloatBuffer().put(value);
+			}
+
+			public float[] read(ByteBuffer data) {
+				final float[] value = new float[data.remaining() / 4];
+				data.asFloatBuffer().get(value);
+				return value;
+			}
+		});
+		register(new FixedCodec<String>(String.class, "text/plain", 0) {
+			@Override
+			public int encodedLength(String value) {
+				return StringCodec.encodedLength(value) + 1;
+			}
+
+			public void write(String value, ByteBuffer out) {
+				StringCodec.put(out, value, out.remaining() - 1);
+				out.put((byte) 0);
+			}
+
+			public String read(ByteBuffer data) {
+				int n = 0;
+				while (n < data.remaining() && data.get(data.position() + n) != 0) {
+					n++;
+				}
+				return StringCodec.get(data, n);
+			}
+		});
+		register(new FixedCodec<byte[]>(byte[].class, "application/octet-stream", 0) {
+			@Override
+			public int encodedLength(byte[] value) {
+				return value.length;
+			}
+
+			public void write(byte[] value, ByteBuffer out) {
+				out.put(value);
+			}
+
+			public byte[] read(ByteBuffer data) {
+				final byte[] value = new byte[data.remaining()];
+				data.get(value);
+				return value;
+			}
+		});
+	}
+
+	/**
+	 * Register a codec, replacing any codec previously registered for its type or mimetype.
+	 * @param codec The codec.
+	 */
+	public static <T> void register(TupleCodec<T> codec) {
+		byType.put(codec.getType(), codec);
+		byMimetype.put(codec.getMimetype(), codec);
+	}
+
+	/**
+	 * Get the codec of a type.  Primitive types are mapped to their wrappers, and records
+	 * get a codec on first use.
+	 * @param type The type of the values.
+	 * @return The codec.
+	 * @throws IllegalArgumentException If there is no codec for the type.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> TupleCodec<T> forType(Class<T> type) {
+		final TupleCodec<?> codec = byType.get(type);
+		if (codec != null) {
+			return (TupleCodec<T>) codec;
+		}
+		if (type.isPrimitive()) {
+			return (TupleCodec<T>) forType(wrap(type));
+		}
+		if (isRecord(type)) {
+			final TupleCodec<T> rc = new RecordCodec<T>(type);
+			final TupleCodec<?> prev = byType.putIfAbsent(type, rc);
+			if (prev != null) {
+				return (TupleCodec<T>) prev;
+			}
+			byMimetype.putIfAbsent(rc.getMimetype(), rc);
+			return rc;
+		}
+		throw new IllegalArgumentException("No tuple codec for " + type.getName());
+	}
+
+	/**
+	 * Get the codec registered for a mimetype.
+	 * @param mimetype The mimetype.
+	 * @return The codec, or {@code null} if there is none.
+	 */
+	public static TupleCodec<?> forMimetype(String mimetype) {
+		return mimetype == null ? null : byMimetype.get(mimetype);
+	}
+
+	/**
+	 * Get the codec of the type of a value.
+	 * @param value The value.
+	 * @return The codec.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> TupleCodec<T> forValue(T value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value is null");
+		}
+		return (TupleCodec<T>) forType(value.getClass());
+	}
+
+	private static boolean isRecord(Class<?> type) {
+		final Class<?> sup = type.getSuperclass();
+		return GET_RECORD_COMPONENTS != null && sup != null && sup.getName().equals("java.lang.Record");
+	}
+
+	private static Class<?> wrap(Class<?> type) {
+		if (type == int.class) return Integer.class;
+		if (type == long.class) return Long.class;
+		if (type == float.class) return Float.class;
+		if (type == double.class) return Double.class;
+		if (type == boolean.class) return Boolean.class;
+		throw new IllegalArgumentException("No tuple codec for " + type.getName());
+	}
+
+	/**
+	 * Codec of a record, writing its components in declaration order.
+	 */
+	private static final class RecordCodec<T> implements TupleCodec<T> {
+		private final Class<T> type;
+		private final String mimetype;
+		private final Method[] accessors;
+		private final Class<?>[] types;
+		private final Constructor<T> constructor;
+		private final int fixedLength;
+
+		RecordCodec(Class<T> type) {
+			this.type = type;
+			this.mimetype = RECORD + type.getName();
+			final Object[] components;
+			try {
+				components = (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				throw new IllegalArgumentException("Cannot read the components of record " + type.getName(), e);
+			}
+			accessors = new Method[components.length];
+			types = new Class<?>[components.length];
+			int fixed = 0;
+			for (int i = 0; i < components.length; i++) {
+				try {
+					types[i] = (Class<?>) COMPONENT_TYPE.invoke(components[i]);
+					accessors[i] = (Method) COMPONENT_ACCESSOR.invoke(components[i]);
+				} catch (IllegalAccessException | InvocationTargetException e) {
+					throw new IllegalArgumentException("Cannot read the components of record " + type.getName(), e);
+				}
+				accessors[i].setAccessible(true);
+				fixed += fixedSize(types[i]);
+			}
+			fixedLength = fixed;
+			try {
+				constructor = type.getDeclaredConstructor(types);
+				constructor.setAccessible(true);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("No canonical constructor in " + type.getName(), e);
+			}
+		}
+
+		/**
+		 * @return The size of a primitive component, or of the length prefix of a variable-size one.
+		 */
+		private int fixedSize(Class<?> t) {
+			if (t == int.class || t == float.class) return 4;
+			if (t == long.class || t == double.class) return 8;
+			if (t == short.class || t == char.class) return 2;
+			if (t == byte.class || t == boolean.class) return 1;
+			if (t == String.class || t == byte[].class || t == float[].class || t == double[].class) return 4;
+			throw new IllegalArgumentException("Unsupported component type " + t.getName() + " in record " + type.getName());
+		}
+
+		private Object get(T value, int i) {
+			try {
+				return accessors[i].invoke(value);
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			} catch (InvocationTargetException e) {
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+
+		@Override
+		public String getMimetype() {
+			return mimetype;
+		}
+
+		@Override
+		public Class<T> getType() {
+			return type;
+		}
+
+		@Override
+		public int encodedLength(T value) {
+			int len = fixedLength;
+			for (int i = 0; i < types.length; i++) {
+				final Class<?> t = types[i];
+				if (t.isPrimitive()) {
+					continue;
+				}
+				final Object v = get(value, i);
+				if (v == null) {
+					continue;
+				}
+				if (t == String.class) {
+					len += StringCodec.encodedLength((String) v);
+				} else if (t == byte[].class) {
+					len += ((byte[]) v).length;
+				} else if (t == float[].class) {
+					len += ((float[]) v).length * 4;
+				} else {
+					len += ((double[]) v).length * 8;
+				}
+			}
+			return len;
+		}
+
+		@Override
+		public void write(T value, ByteBuffer out) {
+			for (int i = 0; i < types.length; i++) {
+				final Class<?> t = types[i];
+				final Object v = get(value, i);
+				if (t == int.class) out.putInt((Integer) v);
+				else if (t == long.class) out.putLong((Long) v);
+				else if (t == float.class) out.putFloat((Float) v);
+				else if (t == double.class) out.putDouble((Double) v);
+				else if (t == short.class) out.putShort((Short) v);
+				else if (t == char.class) out.putChar((Character) v);
+				else if (t == byte.class) out.put((Byte) v);
+				else if (t == boolean.class) out.put((Boolean) v ? (byte) 1 : (byte) 0);
+				else if (v == null) out.putInt(-1);
+				else if (t == String.class) {
+					final String s = (String) v;
+					final int n = StringCodec.encodedLength(s);
+					out.putInt(n);
+					StringCodec.put(out, s, n);
+				} else if (t == byte[].class) {
+					out.putInt(((byte[]) v).length).put((byte[]) v);
+				} else if (t == float[].class) {
+					final float[] a = (float[]) v;
+					out.putInt(a.length);
+					out.asFloatBuffer().put(a);
+					out.position(out.position() + a.length * 4);
+				} else {
+					final double[] a = (double[]) v;
+					out.putInt(a.length);
+					out.asDoubleBuffer().put(a);
+					out.position(out.position() + a.length * 8);
+				}
+			}
+		}
+
+		@Override
+		public T read(ByteBuffer data) {
+			final Object[] args = new Object[types.length];
+			for (int i = 0; i < types.length; i++) {
+				final Class<?> t = types[i];
+				if (t == int.class) args[i] = data.getInt();
+				else if (t == long.class) args[i] = data.getLong();
+				else if (t == float.class) args[i] = data.getFloat();
+				else if (t == double.class) args[i] = data.getDouble();
+				else if (t == short.class) args[i] = data.getShort();
+				else if (t == char.class) args[i] = data.getChar();
+				else if (t == byte.class) args[i] = data.get();
+				else if (t == boolean.class) args[i] = data.get() != 0;
+				else {
+					final int n = data.getInt();
+					if (n < 0) {
+						args[i] = null;
+					} else if (t == String.class) {
+						args[i] = StringCodec.get(data, n);
+					} else if (t == byte[].class) {
+						final byte[] a = new byte[n];
+						data.get(a);
+						args[i] = a;
+					} else if (t == float[].class) {
+						final float[] a = new float[n];
+						data.asFloatBuffer().get(a);
+						data.position(data.position() + n * 4);
+						args[i] = a;
+					} else {
+						final double[] a = new double[n];
+						data.asDoubleBuffer().get(a);
+						data.position(data.position() + n * 8);
+						args[i] = a;
+					}
+				}
+			}
+			try {
+				return constructor.newInstance(args);
+			} catch (InvocationTargetException e) {
+				throw new IllegalArgumentException("Cannot decode " + type.getName(), e.getCause());
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
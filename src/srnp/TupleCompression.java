@@ -0,0 +1,182 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * Transparent deflate compression of binary tuples.  When enabled (see
+ * {@link PeisJavaMT#peisjava_setCompressionThreshold(int)}), byte array values of at least
+ * the threshold size set with {@code peisjava_setTuple}, {@code peisjava_setRemoteTuple} and
+ * {@code peisjava_setTupleIndirectly} are deflated straight into the native buffer handed to
+ * the kernel, if that makes them smaller, and {@value #ENCODING} is appended to their mimetype.
+ * As tuples read from the kernel carry neither mimetype nor encoding, compressed data is
+ * self-describing: it starts with a 12 byte header, {@code 0x89 'S' 'Z' 0x02}, the
+ * uncompressed length and the CRC-32 of the compressed body (little-endian int32s), and the
+ * body is a zlib stream, which carries its own Adler-32 of the uncompressed data.  Readers
+ * ({@link PeisTuple#getByteData()}, {@link PeisTuple#getByteBuffer()} and
+ * {@link PeisTupleView#getByteBuffer()}) inflate data only if magic, length and CRC match and
+ * it inflates to exactly the declared length, whatever the local threshold.  Anything else,
+ * including data whose declared length exceeds {@link #MAX_RATIO} times its size or
+ * {@code srnp.compressMaxLength} bytes, is returned as stored.  Only data starting with the
+ * magic is checksummed.
+ * <br><br>
+ * Deflaters and inflaters are kept per thread.  The threshold defaults to the system property
+ * {@code srnp.compressThreshold} (0, i.e., disabled, if unset), the level to
+ * {@code srnp.compressLevel} ({@link Deflater#BEST_SPEED} if unset) and the maximum inflated
+ * length to {@code srnp.compressMaxLength} (256 MiB if unset).
+ */
+final class TupleCompression {
+
+	static final String ENCODING = ";encoding=deflate";
+
+	static final int HEADER_SIZE = 12;
+
+	/**
+	 * Upper bound of the deflate compression ratio (about 1032:1), with some slack.
+	 */
+	static final int MAX_RATIO = 1100;
+
+	private static final int MAX_LENGTH = Integer.getInteger("srnp.compressMaxLength", 256 << 20);
+
+	private static final int MAGIC = 0x025a5389;
+
+	private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+	private static final int LEVEL = Integer.getInteger("srnp.compressLevel", Deflater.BEST_SPEED);
+
+	private static volatile int threshold = Integer.getInteger("srnp.compressThreshold", 0);
+
+	private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(LEVEL);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	private TupleCompression() {
+	}
+
+	static int getThreshold() {
+		return threshold;
+	}
+
+	static void setThreshold(int bytes) {
+		threshold = Math.max(0, bytes);
+	}
+
+	/**
+	 * Write a value into a native buffer, deflated if it is at least the threshold size and
+	 * compresses.
+	 * @param value The value.
+	 * @param out A buffer of at least {@code value.length} bytes.
+	 * @return The number of bytes written; less than {@code value.length} iff the value was compressed.
+	 */
+	static int encode(byte[] value, Memory out) {
+		final int t = threshold;
+		if (t > 0 && value.length >= t && value.length > HEADER_SIZE + 1) {
+			final int len = deflate(value, out);
+			if (len > 0) {
+				return len;
+			}
+		}
+		out.write(0, value, 0, value.length);
+		return value.length;
+	}
+
+	private static int deflate(byte[] value, Memory out) {
+		final Deflater deflater = DEFLATER.get();
+		try {
+			deflater.setInput(value);
+			deflater.finish();
+			//Only worth it if strictly smaller than the raw value
+			final ByteBuffer body = out.getByteBuffer(HEADER_SIZE, value.length - HEADER_SIZE - 1);
+			while (!deflater.finished() && body.hasRemaining()) {
+				deflater.deflate(body);
+			}
+			if (!deflater.finished()) {
+				return -1;
+			}
+			body.flip();
+			final CRC32 crc = new CRC32();
+			crc.update(body);
+			out.getByteBuffer(0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(value.length).putInt((int) crc.getValue());
+			return HEADER_SIZE + body.limit();
+		} finally {
+			deflater.reset();
+		}
+	}
+
+	/**
+	 * Get the mimetype to set with an encoded value.
+	 * @param mimetype The mimetype of the value.
+	 * @param compressed Whether the value was compressed.
+	 * @return The mimetype, tagged with {@link #ENCODING} if compressed.
+	 */
+	static String mimetype(String mimetype, boolean compressed) {
+		if (!compressed) {
+			return mimetype;
+		}
+		return (mimetype == null ? "application/octet-stream" : mimetype) + ENCODING;
+	}
+
+	/**
+	 * Inflate the data of a tuple if it is compressed.
+	 * @param data The data.
+	 * @param datalen The length of the data.
+	 * @return The inflated data, or {@code null} if the data is not compressed.
+	 */
+	static byte[] decode(Pointer data, int datalen) {
+		if (data == null || datalen <= HEADER_SIZE) {
+			return null;
+		}
+		final int magic = data.getInt(0);
+		if ((LITTLE_ENDIAN ? magic : Integer.reverseBytes(magic)) != MAGIC) {
+			return null;
+		}
+		final int length = LITTLE_ENDIAN ? data.getInt(4) : Integer.reverseBytes(data.getInt(4));
+		final int bodylen = datalen - HEADER_SIZE;
+		if (length <= bodylen || length > MAX_LENGTH || length > (long) bodylen * MAX_RATIO) {
+			return null;
+		}
+		final ByteBuffer body = data.getByteBuffer(HEADER_SIZE, bodylen);
+		final CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		final int sum = LITTLE_ENDIAN ? data.getInt(8) : Integer.reverseBytes(data.getInt(8));
+		if ((int) crc.getValue() != sum) {
+			return null;
+		}
+		final byte[] value = new byte[length];
+		final Inflater inflater = INFLATER.get();
+		try {
+			inflater.setInput(body);
+			int n = 0;
+			while (n < length && !inflater.finished()) {
+				final int r = inflater.inflate(value, n, length - n);
+				if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					return null;
+				}
+				n += r;
+			}
+			//Also verifies the Adler-32 of the zlib trailer
+			return n == length && inflater.finished() ? value : null;
+		} catch (DataFormatException e) {
+			return null;
+		} finally {
+			inflater.reset();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package srnp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the data of a tuple in place.  See
+ * {@link PeisJavaMT#peisjava_readByteTuple(int, String, TupleDataReader)}.
+ * @param <T> The type of the parsed value.
+ */
+public interface TupleDataReader<T> {
+
+	/**
+	 * Parse the data of a tuple.
+	 * @param data A read-only view over the native tuple data, valid only until this method returns.
+	 * @return The parsed value.
+	 */
+	T read(ByteBuffer data);
+}
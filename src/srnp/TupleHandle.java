@@ -0,0 +1,183 @@
+package srnp;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns a native tuple returned by the kernel and frees it with {@code peiskmt_deAllocateTuple}
+ * when closed, for use with try-with-resources:
+ * <pre>
+ * try (TupleHandle h = PeisJavaMT.peisjava_getTupleHandle(owner, key)) {
+ *     if (h != null) h.read(buf -&gt; parse(buf));
+ * }
+ * </pre>
+ * Handles that are never closed are freed once they become unreachable, and counted as
+ * leaked (see {@link #getLeaked()}), so that missing {@code close()} calls show up before
+ * native memory grows.  The native tuple itself is never handed out, as it could outlive an
+ * unreachable handle: its fields are read through the handle, which stays reachable until
+ * each read completes, and {@link #copy()} gives a detached tuple to keep.
+ */
+public final class TupleHandle implements AutoCloseable {
+
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	private static final AtomicLong opened = new AtomicLong();
+	private static final AtomicLong closed = new AtomicLong();
+	private static final AtomicLong leaked = new AtomicLong();
+
+	/**
+	 * The part of a handle needed to free the tuple; must not refer to the handle.
+	 */
+	private static final class State implements Runnable {
+		private final PeisTuple tuple;
+		private volatile boolean explicit = false;
+
+		State(PeisTuple tuple) {
+			this.tuple = tuple;
+		}
+
+		@Override
+		public void run() {
+			if (explicit) {
+				closed.incrementAndGet();
+			} else {
+				leaked.incrementAndGet();
+			}
+			PeisJavaMT.peisjava_freeTuple(tuple);
+		}
+	}
+
+	private final State state;
+
+	private final Cleaner.Cleanable cleanable;
+
+	TupleHandle(PeisTuple tuple) {
+		this.state = new State(tuple);
+		this.cleanable = CLEANER.register(this, state);
+		opened.incrementAndGet();
+	}
+
+	private PeisTuple tuple() {
+		if (state.explicit) {
+			throw new IllegalStateException("Tuple handle is closed");
+		}
+		return state.tuple;
+	}
+
+	/**
+	 * @return The owner of the tuple.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public int getOwner() {
+		return tuple().getOwner();
+	}
+
+	/**
+	 * @return The key of the tuple.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public String getKey() {
+		try {
+			return tuple().getKey();
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * @return The write time stamp of the tuple in microseconds since the epoch.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public long getTsWriteMicros() {
+		return tuple().getTsWriteMicros();
+	}
+
+	/**
+	 * @return A copy of the data of the tuple (inflated if compressed), {@code null} if there is none.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public byte[] getByteData() {
+		try {
+			return tuple().getByteData();
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * @return The data of the tuple decoded as a UTF-8 String, {@code null} if there is none.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public String getStringData() {
+		try {
+			return tuple().getStringData();
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Decode the data of the tuple with the {@link TupleCodec} of a type.
+	 * @param type The type of the value.
+	 * @return The decoded value, or {@code null} if there is no data.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public <T> T getData(Class<T> type) {
+		try {
+			return tuple().getData(type);
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Parse the data of the tuple in place (see {@link PeisTuple#getByteBuffer()}).  The buffer
+	 * is valid only until the reader returns; the handle is kept alive until then.
+	 * @param reader The parser of the tuple data.
+	 * @return The value returned by the reader.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public <T> T read(TupleDataReader<T> reader) {
+		try {
+			return reader.read(tuple().getByteBuffer());
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * @return A detached copy of the tuple, which stays valid after the handle is closed.
+	 * @throws IllegalStateException if the handle has been closed.
+	 */
+	public PeisTuple copy() {
+		try {
+			return tuple().copy();
+		} finally {
+			Reference.reachabilityFence(this);
+		}
+	}
+
+	/**
+	 * Free the tuple.  Closing a handle more than once has no effect.
+	 */
+	@Override
+	public void close() {
+		state.explicit = true;
+		cleanable.clean();
+	}
+
+	/**
+	 * @return The number of handles not yet freed.
+	 */
+	public static long getOpen() {
+		return opened.get() - closed.get() - leaked.get();
+	}
+
+	/**
+	 * @return The number of handles freed by the garbage collector because they were never closed.
+	 */
+	public static long getLeaked() {
+		return leaked.get();
+	}
+}
@@ -0,0 +1,190 @@
+package srnp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a stream of chunk tuples written by a {@link TupleOutputStream}, as an
+ * {@link InputStream} or a {@link ReadableByteChannel}.  Chunks are awaited one at a time
+ * with {@link PeisJavaMT#peisjava_awaitTuple(int, String, long, long, TimeUnit)} (which
+ * subscribes to remote chunks while waiting), so bytes are available as soon as the first
+ * chunk has arrived and only one chunk is held at a time.  Open with
+ * {@link PeisJavaMT#peisjava_openTupleStream(int, String, long, TimeUnit)}.
+ */
+public class TupleInputStream extends InputStream implements ReadableByteChannel {
+
+	private final int owner;
+	private final String key;
+	private final long timeoutNanos;
+	private final long id;
+	private final long length;
+
+	/**
+	 * The chunk being read (holds the memory of {@code payload}).
+	 */
+	private PeisTuple current = null;
+	private ByteBuffer payload = null;
+	private int next = 0;
+	private boolean last = false;
+	private boolean closed = false;
+
+	TupleInputStream(int owner, String key, long timeout, TimeUnit unit) throws IOException {
+		this.owner = owner;
+		this.key = key;
+		this.timeoutNanos = unit.toNanos(timeout);
+		final ByteBuffer manifest = await(key, PeisJavaUtilities.UNDEFINED_TIME).getByteBuffer();
+		if (manifest == null || manifest.remaining() != TupleOutputStream.MANIFEST_SIZE) {
+			throw new IOException("Tuple " + key + " is not a stream manifest");
+		}
+		manifest.order(ByteOrder.LITTLE_ENDIAN);
+		this.id = manifest.getLong();
+		manifest.getInt();
+		this.length = manifest.getLong();
+	}
+
+	private PeisTuple await(String k, long newerThanMicros) throws IOException {
+		final PeisTuple t;
+		try {
+			t = PeisJavaMT.peisjava_awaitTuple(owner, k, newerThanMicros, timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + k);
+		}
+		if (t == null) {
+			throw new IOException("Timed out waiting for " + k);
+		}
+		return t;
+	}
+
+	/**
+	 * Wait for the next chunk of this stream, skipping chunks left by older streams.
+	 */
+	private void nextChunk() throws IOException {
+		final String k = TupleOutputStream.chunkKey(key, next);
+		long newer = PeisJavaUtilities.UNDEFINED_TIME;
+		while (true) {
+			final PeisTuple t = await(k, newer);
+			final ByteBuffer b = t.getByteBuffer();
+			if (b == null || b.remaining() < TupleOutputStream.HEADER_SIZE) {
+				throw new IOException("Malformed stream chunk " + k);
+			}
+			b.order(ByteOrder.LITTLE_ENDIAN);
+			final long chunkId = b.getLong();
+			final byte flags = b.get();
+			if (chunkId == id) {
+				current = t;
+				payload = b;
+				last = (flags & TupleOutputStream.LAST) != 0;
+				next++;
+				return;
+			}
+			if (chunkId > id) {
+				throw new IOException("Stream " + key + " was replaced by a newer stream");
+			}
+			newer = t.getTsWriteMicros();
+		}
+	}
+
+	/**
+	 * Make sure that there are bytes to read.
+	 * @return {@code false} at the end of the stream.
+	 */
+	private boolean fill() throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		while (payload == null || !payload.hasRemaining()) {
+			if (last) {
+				current = null;
+				payload = null;
+				return false;
+			}
+			nextChunk();
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return fill() ? payload.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		final int n = Math.min(len, payload.remaining());
+		payload.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!dst.hasRemaining()) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		final int n = Math.min(dst.remaining(), payload.remaining());
+		final int limit = payload.limit();
+		payload.limit(payload.position() + n);
+		dst.put(payload);
+		payload.limit(limit);
+		return n;
+	}
+
+	/**
+	 * @return The number of bytes left in the current chunk.
+	 */
+	@Override
+	public int available() {
+		return payload == null ? 0 : payload.remaining();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		current = null;
+		payload = null;
+	}
+
+	/**
+	 * @return The key of the stream.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return The total length of the stream, or -1 if it was still being written when opened.
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return The number of chunks read so far.
+	 */
+	public int getChunkCount() {
+		return next;
+	}
+}
@@ -0,0 +1,36 @@
+package srnp;
+
+import java.util.Objects;
+
+/**
+ * Immutable (owner, key) pair identifying a tuple.  The key may be {@code null} (wildcard).
+ */
+final class TupleKey {
+
+	final int owner;
+	final String key;
+
+	TupleKey(int owner, String key) {
+		this.owner = owner;
+		this.key = key;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof TupleKey)) {
+			return false;
+		}
+		final TupleKey other = (TupleKey) o;
+		return owner == other.owner && Objects.equals(key, other.key);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * owner + Objects.hashCode(key);
+	}
+
+	@Override
+	public String toString() {
+		return "<" + owner + "," + key + ">";
+	}
+}
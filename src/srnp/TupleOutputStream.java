@@ -0,0 +1,203 @@
+package srnp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jna.Memory;
+
+/**
+ * Publishes a large payload as a stream of chunk tuples, so that neither side has to
+ * hold the whole payload and readers ({@link TupleInputStream}) can start consuming as
+ * soon as the first chunk is set.  Writing to key {@code k} sets:
+ * <ul>
+ * <li>the manifest {@code k} (mimetype {@value #MANIFEST_MIMETYPE}): stream id, chunk size
+ * and total length (-1 until the stream is closed), as little-endian int64/int32/int64;</li>
+ * <li>the chunks {@code k.chunk.0}, {@code k.chunk.1}, ... (mimetype {@value #CHUNK_MIMETYPE}):
+ * the stream id (int64), a flags byte ({@link #LAST} on the final chunk) and at most
+ * {@code chunkSize} bytes of payload.</li>
+ * </ul>
+ * Chunks are written from one reusable native buffer.  Writing to a key again starts a new
+ * stream with a new id, reusing the chunk keys; readers skip chunks left by older streams.
+ */
+public class TupleOutputStream extends OutputStream {
+
+	static final String MANIFEST_MIMETYPE = "application/x-srnp-stream";
+	static final String CHUNK_MIMETYPE = "application/x-srnp-stream-chunk";
+	static final int MANIFEST_SIZE = 20;
+	static final int HEADER_SIZE = 9;
+	static final byte LAST = 1;
+
+	/**
+	 * Default size of the payload of a chunk.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private static final AtomicLong lastId = new AtomicLong();
+
+	private final String key;
+	private final int chunkSize;
+	private final long id;
+	private Memory buffer;
+	private int fill = 0;
+	private int chunks = 0;
+	private long length = 0;
+
+	/**
+	 * Start a stream in local tuplespace.
+	 * @param key The key of the stream.
+	 * @param chunkSize The maximum payload of a chunk tuple.
+	 */
+	public TupleOutputStream(String key, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.key = key;
+		this.chunkSize = chunkSize;
+		this.id = nextId();
+		this.buffer = NativeBufferPool.shared().acquire(HEADER_SIZE + chunkSize);
+		setManifest(-1);
+	}
+
+	/**
+	 * Start a stream in local tuplespace with chunks of {@link #DEFAULT_CHUNK_SIZE} bytes.
+	 * @param key The key of the stream.
+	 */
+	public TupleOutputStream(String key) {
+		this(key, DEFAULT_CHUNK_SIZE);
+	}
+
+	private static long nextId() {
+		final long now = PeisJavaMT.peisjava_currentTimeMicros();
+		long prev;
+		long next;
+		do {
+			prev = lastId.get();
+			next = Math.max(prev + 1, now);
+		} while (!lastId.compareAndSet(prev, next));
+		return next;
+	}
+
+	static String chunkKey(String key, int index) {
+		return key + ".chunk." + index;
+	}
+
+	private void setManifest(long total) {
+		final Memory m = NativeBufferPool.shared().acquire(MANIFEST_SIZE);
+		try {
+			m.getByteBuffer(0, MANIFEST_SIZE).order(ByteOrder.LITTLE_ENDIAN).putLong(id).putInt(chunkSize).putLong(total);
+			PeisJavaMT.INSTANCE.peiskmt_setTuple(key, MANIFEST_SIZE, m, MANIFEST_MIMETYPE, 0);
+		} finally {
+			NativeBufferPool.shared().release(m);
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Stream " + key + " is closed");
+		}
+	}
+
+	private void sendChunk(byte flags) {
+		buffer.getByteBuffer(0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).putLong(id).put(flags);
+		PeisJavaMT.INSTANCE.peiskmt_setTuple(chunkKey(key, chunks), HEADER_SIZE + fill, buffer, CHUNK_MIMETYPE, 0);
+		chunks++;
+		fill = 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		buffer.setByte(HEADER_SIZE + fill, (byte) b);
+		length++;
+		if (++fill == chunkSize) {
+			sendChunk((byte) 0);
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			final int n = Math.min(len, chunkSize - fill);
+			buffer.write(HEADER_SIZE + fill, b, off, n);
+			fill += n;
+			off += n;
+			len -= n;
+			length += n;
+			if (fill == chunkSize) {
+				sendChunk((byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * Write the remaining bytes of a buffer to the stream.
+	 * @param src The buffer.
+	 * @throws IOException If the stream is closed.
+	 */
+	public void write(ByteBuffer src) throws IOException {
+		ensureOpen();
+		while (src.hasRemaining()) {
+			final int n = Math.min(src.remaining(), chunkSize - fill);
+			final ByteBuffer dst = buffer.getByteBuffer(HEADER_SIZE + fill, n);
+			final int limit = src.limit();
+			src.limit(src.position() + n);
+			dst.put(src);
+			src.limit(limit);
+			fill += n;
+			length += n;
+			if (fill == chunkSize) {
+				sendChunk((byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * Set the buffered bytes, if any, as a (short) chunk, so that readers get them without
+	 * waiting for the chunk to fill up.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		if (fill > 0) {
+			sendChunk((byte) 0);
+		}
+	}
+
+	/**
+	 * Set the final chunk and the total length in the manifest.
+	 */
+	@Override
+	public void close() {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			sendChunk(LAST);
+			setManifest(length);
+		} finally {
+			NativeBufferPool.shared().release(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * @return The key of the stream.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return The number of chunks set so far.
+	 */
+	public int getChunkCount() {
+		return chunks;
+	}
+}
@@ -0,0 +1,150 @@
+package srnp;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.LongAdder;
+
+import srnp.PeisJavaInterface.PeisSubscriberHandle;
+
+/**
+ * The updates of one tuple as a {@link Flow.Publisher}, for plugging tuple streams into
+ * reactive pipelines; created with {@link PeisJavaMT#peisjava_createTuplePublisher(int, String, Executor, int)}.
+ * The publisher holds one tuple callback (and one subscription, for remote tuples) until
+ * {@link #close()}.  The kernel thread never blocks on subscribers: each update is copied and
+ * offered to a bounded buffer per subscriber, drained on the executor as subscribers signal
+ * demand with {@link Flow.Subscription#request(long)}.  Updates that find a subscriber's
+ * buffer full are dropped for that subscriber (see {@link #getDropped()}).  Closing the
+ * publisher completes all subscribers.
+ */
+public final class TuplePublisher implements Flow.Publisher<PeisTuple>, AutoCloseable {
+
+	private final int owner;
+	private final String key;
+
+	private final SubmissionPublisher<PeisTuple> publisher;
+
+	private final LongAdder published = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	private double callback = 0.0;
+	private PeisSubscriberHandle subscription = null;
+	private boolean closed = false;
+
+	private final CallbackObject relay = new CallbackObject() {
+		@Override
+		public void callback(PeisTuple tuple) {
+			if (publisher.isClosed() || !publisher.hasSubscribers()) {
+				return;
+			}
+			try {
+				publisher.offer(tuple.copy(), (subscriber, dropped) -> {
+					TuplePublisher.this.dropped.increment();
+					return false;
+				});
+				published.increment();
+			} catch (IllegalStateException e) {
+				// closed between the check and the offer: the update is not published
+			}
+		}
+	};
+
+	TuplePublisher(int owner, String key, Executor executor, int bufferCapacity) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor must be given");
+		}
+		if (bufferCapacity <= 0) {
+			throw new IllegalArgumentException("Buffer capacity must be positive");
+		}
+		this.owner = owner;
+		this.key = key;
+		this.publisher = new SubmissionPublisher<PeisTuple>(executor, bufferCapacity);
+	}
+
+	/**
+	 * Register the callback (and subscription) feeding this publisher.
+	 */
+	synchronized TuplePublisher open() {
+		callback = PeisJavaMT.peisjava_registerTupleCallback(owner, key, relay);
+		if (owner != PeisJavaMT.peisjava_peisid()) {
+			subscription = PeisJavaMT.peisjava_subscribe(owner, key);
+		}
+		return this;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super PeisTuple> subscriber) {
+		publisher.subscribe(subscriber);
+	}
+
+	/**
+	 * Cancel the callback and subscription of this publisher and complete its subscribers.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		PeisJavaMT.peisjava_unregisterTupleCallback(callback);
+		if (subscription != null) {
+			PeisJavaMT.peisjava_unsubscribe(subscription);
+		}
+		publisher.close();
+	}
+
+	/**
+	 * @return The owner of the published tuple.
+	 */
+	public int getOwner() {
+		return owner;
+	}
+
+	/**
+	 * @return The key of the published tuple.
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return The capacity of the buffer of each subscriber (a power of two, at least the requested one).
+	 */
+	public int getBufferCapacity() {
+		return publisher.getMaxBufferCapacity();
+	}
+
+	/**
+	 * @return The number of current subscribers.
+	 */
+	public int getNumberOfSubscribers() {
+		return publisher.getNumberOfSubscribers();
+	}
+
+	/**
+	 * @return The largest number of updates buffered for a subscriber.
+	 */
+	public int getMaxBufferedUpdates() {
+		return publisher.estimateMaximumLag();
+	}
+
+	/**
+	 * @return The number of updates offered to subscribers.
+	 */
+	public long getPublished() {
+		return published.sum();
+	}
+
+	/**
+	 * @return The number of (update, subscriber) deliveries dropped because the subscriber's buffer was full.
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "TuplePublisher <" + key + "," + owner + ", subscribers=" + getNumberOfSubscribers() + ", published="
+				+ getPublished() + ", dropped=" + getDropped() + ">";
+	}
+}
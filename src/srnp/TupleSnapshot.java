@@ -0,0 +1,295 @@
+package srnp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.jna.Memory;
+
+/**
+ * Memory-mapped snapshot of the tuples this process sets and subscribes to, for a warm
+ * restart (see {@link PeisJavaMT#peisjava_enableSnapshot(Path, long, TimeUnit)}).  The tuples
+ * are written periodically from a daemon thread into a temporary file, which then replaces
+ * the snapshot file atomically.  When enabled, the previous snapshot is mapped and indexed,
+ * and {@link PeisJavaMT#peisjava_getTuple(int, String)} serves a tuple from it as long as the
+ * kernel has no value for it.  Tuples this process set are served under its current peis id,
+ * whatever the id of the process that wrote the snapshot, i.e., they are matched by key alone.
+ * A snapshot whose header or any entry does not fit the file is ignored as a whole.  The file
+ * is laid out as little-endian:
+ * <pre>
+ * long magic;  int version;  int count;  long createdMicros;  int peisid;  int reserved;
+ * int offset[count];     (of the entries, from the start of the file)
+ * entries:  int owner;  int tsWrite[2];  int tsExpire[2];  int keylen;  int datalen;
+ *           char key[keylen];  char data[datalen];
+ * </pre>
+ * where {@code peisid} is the id of the writing process.
+ */
+final class TupleSnapshot {
+
+	private static final long MAGIC = 0x31504e53504e5253L; // "SRNPSNP1"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 32;
+	private static final int ENTRY_HEADER_SIZE = 28;
+
+	private final Path file;
+
+	/**
+	 * Keys of the tuples set by this process.
+	 */
+	private final Set<String> ownKeys = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Tuples subscribed to by this process.
+	 */
+	private final Set<TupleKey> subscriptions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The mapped previous snapshot, its entries by (owner, key), by key alone, and the entries
+	 * of the tuples set by the writing process by key.
+	 */
+	private final ByteBuffer loaded;
+	private final Map<TupleKey, Integer> index;
+	private final Map<String, Integer> byKey;
+	private final Map<String, Integer> own;
+
+	private final ScheduledThreadPoolExecutor writer;
+
+	TupleSnapshot(Path file, long interval, TimeUnit unit) {
+		this.file = file;
+		ByteBuffer mapped = null;
+		final HashMap<TupleKey, Integer> idx = new HashMap<TupleKey, Integer>();
+		final HashMap<String, Integer> keys = new HashMap<String, Integer>();
+		final HashMap<String, Integer> ownEntries = new HashMap<String, Integer>();
+		try {
+			mapped = load(file, idx, keys, ownEntries);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Ignoring unreadable tuple snapshot " + file + ": " + e);
+			idx.clear();
+			keys.clear();
+			ownEntries.clear();
+		}
+		this.loaded = mapped;
+		this.index = idx;
+		this.byKey = keys;
+		this.own = ownEntries;
+		for (String k : ownEntries.keySet()) {
+			ownKeys.add(k);
+		}
+		for (Map.Entry<TupleKey, Integer> e : idx.entrySet()) {
+			if (!e.getValue().equals(ownEntries.get(e.getKey().key))) {
+				subscriptions.add(e.getKey());
+			}
+		}
+		writer = new ScheduledThreadPoolExecutor(1, r -> {
+			final Thread t = new Thread(r, "srnp-snapshot");
+			t.setDaemon(true);
+			return t;
+		});
+		writer.scheduleWithFixedDelay(() -> {
+			try {
+				write();
+			} catch (IOException e) {
+				System.out.println("Could not write tuple snapshot " + file + ": " + e);
+			}
+		}, interval, interval, unit);
+	}
+
+	private static ByteBuffer load(Path file, Map<TupleKey, Integer> idx, Map<String, Integer> keys, Map<String, Integer> own) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		final MappedByteBuffer mapped;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+		}
+		final ByteBuffer b = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		final long size = b.capacity();
+		if (size < HEADER_SIZE || b.getLong(0) != MAGIC || b.getInt(8) != VERSION) {
+			throw new IOException("not a tuple snapshot");
+		}
+		final int count = b.getInt(12);
+		final int writer = b.getInt(24);
+		final long entries = HEADER_SIZE + 4L * count;
+		if (count < 0 || entries > size) {
+			throw new IOException("bad entry count " + count);
+		}
+		final byte[] key = new byte[256];
+		for (int i = 0; i < count; i++) {
+			final int offset = b.getInt(HEADER_SIZE + 4 * i);
+			if (offset < entries || offset > size - ENTRY_HEADER_SIZE) {
+				throw new IOException("bad offset of entry " + i);
+			}
+			final int keylen = b.getInt(offset + 20);
+			final int datalen = b.getInt(offset + 24);
+			if (keylen < 0 || datalen < 0 || (long) offset + ENTRY_HEADER_SIZE + keylen + datalen > size) {
+				throw new IOException("bad length of entry " + i);
+			}
+			final int owner = b.getInt(offset);
+			final byte[] k = keylen <= key.length ? key : new byte[keylen];
+			b.position(offset + ENTRY_HEADER_SIZE);
+			b.get(k, 0, keylen);
+			final String s = new String(k, 0, keylen, StandardCharsets.UTF_8);
+			idx.put(new TupleKey(owner, s), offset);
+			keys.put(s, offset);
+			if (owner == writer) {
+				own.put(s, offset);
+			}
+		}
+		return b;
+	}
+
+	void trackOwn(String key) {
+		ownKeys.add(key);
+	}
+
+	void trackSubscription(int owner, String key) {
+		subscriptions.add(new TupleKey(owner, key));
+	}
+
+	/**
+	 * @return The number of tuples in the mapped snapshot.
+	 */
+	int size() {
+		return index.size();
+	}
+
+	/**
+	 * Get a tuple from the mapped snapshot.  Tuples set by the process that wrote the snapshot
+	 * are found under the peis id of this process, and returned with it as their owner.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @return A detached copy of the tuple, or {@code null} if the snapshot has none.
+	 */
+	PeisTuple getTuple(int owner, String key) {
+		if (loaded == null) {
+			return null;
+		}
+		final int self = PeisJavaMT.peisjava_peisid();
+		Integer offset = owner < 0 ? byKey.get(key) : index.get(new TupleKey(owner, key));
+		boolean mine = owner < 0 && offset != null && offset.equals(own.get(key));
+		if (offset == null && owner == self) {
+			offset = own.get(key);
+			mine = true;
+		}
+		if (offset == null) {
+			return null;
+		}
+		final ByteBuffer b = loaded.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		final int o = offset;
+		final int keylen = b.getInt(o + 20);
+		final int datalen = b.getInt(o + 24);
+		final Memory k = new Memory(keylen + 1);
+		final Memory d = datalen > 0 ? new Memory(datalen) : null;
+		b.position(o + ENTRY_HEADER_SIZE).limit(o + ENTRY_HEADER_SIZE + keylen);
+		k.getByteBuffer(0, keylen).put(b);
+		k.setByte(keylen, (byte) 0);
+		if (d != null) {
+			b.limit(o + ENTRY_HEADER_SIZE + keylen + datalen);
+			d.getByteBuffer(0, datalen).put(b);
+		}
+		final PeisTuple tuple = PeisTuple.create(mine ? self : b.getInt(o), k, d, datalen, b.getInt(o + 4), b.getInt(o + 8));
+		tuple.ts_expire[0] = b.getInt(o + 12);
+		tuple.ts_expire[1] = b.getInt(o + 16);
+		tuple.write();
+		return tuple;
+	}
+
+	/**
+	 * Write the tracked tuples to the snapshot file.  Tracked tuples the kernel has no value
+	 * for yet are carried over from the mapped snapshot.
+	 * @throws IOException If the file cannot be written.
+	 */
+	synchronized void write() throws IOException {
+		final int self = PeisJavaMT.peisjava_peisid();
+		final ArrayList<TupleKey> keys = new ArrayList<TupleKey>();
+		for (String k : ownKeys) {
+			keys.add(new TupleKey(self, k));
+		}
+		for (TupleKey k : subscriptions) {
+			if (k.owner != self || !ownKeys.contains(k.key)) {
+				keys.add(k);
+			}
+		}
+		final ArrayList<PeisTuple> tuples = new ArrayList<PeisTuple>(keys.size());
+		final ArrayList<byte[]> names = new ArrayList<byte[]>(keys.size());
+		final long now = PeisJavaMT.peisjava_currentTimeMicros();
+		try {
+			long size = HEADER_SIZE;
+			for (TupleKey k : keys) {
+				final PeisTuple t = PeisJavaMT.peisjava_getTuple(k.owner, k.key);
+				if (t == null) {
+					continue;
+				}
+				if (t.datalen < 0 || t.isExpired(now) || (t.datalen > 0 && (t.data == null || t.data.getPointer() == null))) {
+					PeisJavaMT.peisjava_freeTuple(t);
+					continue;
+				}
+				final byte[] name = t.getKey().getBytes(StandardCharsets.UTF_8);
+				tuples.add(t);
+				names.add(name);
+				size += 4 + ENTRY_HEADER_SIZE + name.length + t.datalen;
+			}
+			final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+			try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				final MappedByteBuffer out = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+				out.order(ByteOrder.LITTLE_ENDIAN);
+				out.putLong(MAGIC).putInt(VERSION).putInt(tuples.size()).putLong(now).putInt(self).putInt(0);
+				int offset = HEADER_SIZE + 4 * tuples.size();
+				for (int i = 0; i < tuples.size(); i++) {
+					out.putInt(offset);
+					offset += ENTRY_HEADER_SIZE + names.get(i).length + tuples.get(i).datalen;
+				}
+				for (int i = 0; i < tuples.size(); i++) {
+					final PeisTuple t = tuples.get(i);
+					final byte[] name = names.get(i);
+					out.putInt(t.owner).putInt(t.ts_write[0]).putInt(t.ts_write[1]).putInt(t.ts_expire[0]).putInt(t.ts_expire[1]);
+					out.putInt(name.length).putInt(t.datalen).put(name);
+					if (t.datalen > 0) {
+						out.put(t.data.getPointer().getByteBuffer(0, t.datalen));
+					}
+				}
+				out.force();
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			for (PeisTuple t : tuples) {
+				PeisJavaMT.peisjava_freeTuple(t);
+			}
+		}
+	}
+
+	/**
+	 * Stop writing snapshots.
+	 * @param writeLast Whether to write a last snapshot first.
+	 */
+	void close(boolean writeLast) {
+		writer.shutdownNow();
+		try {
+			writer.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (writeLast) {
+			try {
+				write();
+			} catch (IOException e) {
+				System.out.println("Could not write tuple snapshot " + file + ": " + e);
+			}
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package srnp;
+
+import com.sun.jna.Pointer;
+
+/**
+ * A tuple callback which receives the tuple as a {@link PeisTupleView} instead of a
+ * {@link PeisTuple}, so that high-rate subscriptions produce no garbage per tuple.  The view
+ * is a per-thread instance reserved for callbacks (not the one of {@link PeisTupleView#local()},
+ * so the callback may use {@link PeisJavaMT#peisjava_getTupleView(int, String)}) and is only
+ * valid until {@link #callback(PeisTupleView)} returns.
+ * Register with {@link PeisJavaMT#peisjava_registerTupleViewCallback(int, String, TupleViewCallback)}.
+ */
+public abstract class TupleViewCallback implements PeisJavaInterface.PeisTupleRefCallback {
+
+	public abstract void callback(PeisTupleView tuple);
+
+	@Override
+	public void callback(Pointer tuple, Pointer userdata) {
+		final PeisTupleView view = PeisTupleView.acquireCallbackView();
+		try {
+			this.callback(view.wrap(tuple));
+		} finally {
+			view.releaseCallbackView();
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package srnp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import srnp.PeisJavaInterface.PeisSubscriberHandle;
+
+/**
+ * Backs {@link PeisJavaMT#peisjava_awaitTuple(int, String, long, long, java.util.concurrent.TimeUnit)}
+ * and the awaiting reads of {@link PeisJavaAsync}.  All threads and futures waiting on one
+ * (owner, key) share a slot, which holds one tuple callback (and
+ * one subscription, for remote tuples) while it has waiters.  The callback keeps a detached
+ * copy of the newest tuple and signals the slot's condition, so waiters are woken directly
+ * by the kernel thread instead of polling.  Futures hold no thread while they wait: the
+ * callback hands them to their executor, which completes them and releases the slot.  No lock is shared between keys: the native
+ * registration of a slot is made under the slot's monitor by its first waiter, and cancelled
+ * by its last waiter after the slot is retired, outside of any lock.
+ */
+final class TupleWaiters {
+
+	private final ConcurrentHashMap<TupleKey, Slot> slots = new ConcurrentHashMap<TupleKey, Slot>();
+
+	/**
+	 * A future waiting for a tuple.
+	 */
+	private static final class Pending {
+		final long newerThanMicros;
+		final Executor executor;
+		final CompletableFuture<PeisTuple> future = new CompletableFuture<PeisTuple>();
+
+		Pending(long newerThanMicros, Executor executor) {
+			this.newerThanMicros = newerThanMicros;
+			this.executor = executor;
+		}
+	}
+
+	private final class Slot extends CallbackObject {
+		final TupleKey key;
+
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition updated = lock.newCondition();
+
+		/**
+		 * Newest tuple seen and its write time stamp (guarded by lock).
+		 */
+		PeisTuple latest = null;
+		long latestMicros = PeisJavaUtilities.UNDEFINED_TIME;
+
+		/**
+		 * Futures waiting for a newer tuple (guarded by lock).
+		 */
+		final List<Pending> pending = new ArrayList<Pending>();
+
+		/**
+		 * Number of waiting threads, whether the native registration is made, and whether the
+		 * slot was removed by its last waiter (guarded by the slot's monitor).
+		 */
+		int waiters = 0;
+		boolean registered = false;
+		boolean retired = false;
+		double callback = 0.0;
+		PeisSubscriberHandle subscription = null;
+
+		Slot(TupleKey key) {
+			this.key = key;
+		}
+
+		@Override
+		public void callback(PeisTuple tuple) {
+			offer(tuple.copy());
+		}
+
+		void offer(PeisTuple tuple) {
+			final long micros = tuple.getTsWriteMicros();
+			List<Pending> ready = null;
+			lock.lock();
+			try {
+				if (latest == null || micros >= latestMicros) {
+					latest = tuple;
+					latestMicros = micros;
+					updated.signalAll();
+					for (int i = pending.size() - 1; i >= 0; i--) {
+						if (micros > pending.get(i).newerThanMicros) {
+							if (ready == null) {
+								ready = new ArrayList<Pending>();
+							}
+							ready.add(pending.remove(i));
+						}
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+			if (ready != null) {
+				for (final Pending p : ready) {
+					//Off the kernel thread: dependent stages and the release may call into the kernel
+					p.executor.execute(() -> {
+						p.future.complete(tuple.share());
+						release(this);
+					});
+				}
+			}
+		}
+
+		/**
+		 * Add a waiting future, unless the newest tuple already satisfies it.
+		 * @return A tuple satisfying the future, {@code null} if it was added.
+		 */
+		PeisTuple enqueue(Pending p) {
+			lock.lock();
+			try {
+				if (latest != null && latestMicros > p.newerThanMicros) {
+					return latest.share();
+				}
+				pending.add(p);
+				return null;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * @return {@code true} if the future was still waiting, i.e., the caller must release it.
+		 */
+		boolean dequeue(Pending p) {
+			lock.lock();
+			try {
+				return pending.remove(p);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		PeisTuple await(long newerThanMicros, long nanos) throws InterruptedException {
+			lock.lock();
+			try {
+				while (latest == null || latestMicros <= newerThanMicros) {
+					if (nanos <= 0L) {
+						return null;
+					}
+					nanos = updated.awaitNanos(nanos);
+				}
+				return latest.share();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	private Slot acquire(TupleKey k) {
+		for (;;) {
+			final Slot slot = slots.computeIfAbsent(k, Slot::new);
+			synchronized (slot) {
+				if (slot.retired) {
+					//Released by its last waiter meanwhile, use a new one
+					continue;
+				}
+				if (!slot.registered) {
+					register(slot);
+					slot.registered = true;
+				}
+				slot.waiters++;
+				return slot;
+			}
+		}
+	}
+
+	private void register(Slot slot) {
+		final TupleKey k = slot.key;
+		//Register first so that no update is lost between the read and the registration
+		slot.callback = PeisJavaMT.peisjava_registerTupleCallback(k.owner, k.key, slot);
+		if (k.owner != PeisJavaMT.peisjava_peisid()) {
+			slot.subscription = PeisJavaMT.INSTANCE.peiskmt_subscribe(k.owner, k.key);
+		}
+		final PeisTuple tuple = PeisJavaMT.INSTANCE.peiskmt_getTuple(k.owner, k.key, 0);
+		if (tuple != null) {
+			slot.offer(tuple.copy());
+			PeisJavaMT.peisjava_freeTuple(tuple);
+		}
+	}
+
+	private void release(Slot slot) {
+		synchronized (slot) {
+			if (--slot.waiters > 0) {
+				return;
+			}
+			slot.retired = true;
+		}
+		slots.remove(slot.key, slot);
+		PeisJavaMT.peisjava_unregisterTupleCallback(slot.callback);
+		if (slot.subscription != null) {
+			PeisJavaMT.INSTANCE.peiskmt_unsubscribe(slot.subscription);
+		}
+	}
+
+	/**
+	 * Wait for a tuple written after the given time.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param newerThanMicros Write time stamp (microseconds since the epoch) the tuple must be newer than.
+	 * @param nanos The maximum time to wait in nanoseconds.
+	 * @return A detached tuple, or {@code null} on timeout.
+	 */
+	PeisTuple await(int owner, String key, long newerThanMicros, long nanos) throws InterruptedException {
+		final Slot slot = acquire(new TupleKey(owner, key));
+		try {
+			return slot.await(newerThanMicros, nanos);
+		} finally {
+			release(slot);
+		}
+	}
+
+	/**
+	 * Get a future completed with a tuple written after the given time, without blocking a
+	 * thread while waiting.  The future is completed on the executor; completing or cancelling
+	 * it otherwise (e.g., on a timeout) stops the wait.
+	 * @param owner The owner of the tuple, or -1 for any owner.
+	 * @param key The key of the tuple.
+	 * @param newerThanMicros Write time stamp (microseconds since the epoch) the tuple must be newer than.
+	 * @param executor The executor completing the future.
+	 * @return A future completed with a detached tuple.
+	 */
+	CompletableFuture<PeisTuple> awaitAsync(int owner, String key, long newerThanMicros, Executor executor) {
+		final Slot slot = acquire(new TupleKey(owner, key));
+		final Pending p = new Pending(newerThanMicros, executor);
+		final PeisTuple ready = slot.enqueue(p);
+		if (ready != null) {
+			release(slot);
+			p.future.complete(ready);
+			return p.future;
+		}
+		p.future.whenComplete((t, e) -> {
+			if (slot.dequeue(p)) {
+				executor.execute(() -> release(slot));
+			}
+		});
+		return p.future;
+	}
+}